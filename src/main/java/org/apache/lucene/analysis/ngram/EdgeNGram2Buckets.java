@@ -0,0 +1,159 @@
+package org.apache.lucene.analysis.ngram;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Splits gram sizes into consecutive buckets, each indexed into its own sub-field.
+ * <p>
+ * Buckets are defined by their inclusive upper bounds, the last bucket being open-ended.
+ * Eg. the bounds <code>2, 5</code> define the buckets <code>g1_2</code>, <code>g3_5</code> and <code>g6_plus</code>.
+ * </p>
+ * <p>
+ * At index time, each sub-field is analyzed by a filter restricted to its bucket.
+ * At query time, {@link #resolveField(String, int, int)} tells which sub-field holds the grams of a given prefix length.
+ * </p>
+ */
+public final class EdgeNGram2Buckets {
+
+    private final int[] upperBounds;
+
+    /**
+     * @param upperBounds the strictly increasing, inclusive upper bounds of all buckets but the last one
+     */
+    public EdgeNGram2Buckets(int... upperBounds) {
+        if (upperBounds == null) {
+            throw new IllegalArgumentException("upperBounds must not be null");
+        }
+        int previous = 0;
+        for (int upperBound : upperBounds) {
+            if (upperBound <= previous) {
+                throw new IllegalArgumentException("bucket bounds must be strictly increasing and greater than zero");
+            }
+            previous = upperBound;
+        }
+        this.upperBounds = upperBounds.clone();
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    public int size() {
+        return upperBounds.length + 1;
+    }
+
+    /**
+     * @return the index of the bucket holding grams of the given size
+     */
+    public int bucketOf(int gramSize) {
+        if (gramSize < 1) {
+            throw new IllegalArgumentException("gramSize must be greater than zero");
+        }
+        int idx = Arrays.binarySearch(upperBounds, gramSize);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    /**
+     * @return the smallest gram size of the given bucket
+     */
+    public int getMin(int bucket) {
+        checkBucket(bucket);
+        return bucket == 0 ? 1 : upperBounds[bucket - 1] + 1;
+    }
+
+    /**
+     * @return the largest gram size of the given bucket, {@link Integer#MAX_VALUE} for the last one
+     */
+    public int getMax(int bucket) {
+        checkBucket(bucket);
+        return bucket == upperBounds.length ? Integer.MAX_VALUE : upperBounds[bucket];
+    }
+
+    /**
+     * @return the name of the sub-field of the given bucket, eg. <code>g3_5</code> or <code>g6_plus</code>
+     */
+    public String getName(int bucket) {
+        checkBucket(bucket);
+        int max = getMax(bucket);
+        return "g" + getMin(bucket) + "_" + (max == Integer.MAX_VALUE ? "plus" : Integer.toString(max));
+    }
+
+    /**
+     * @return the index of the bucket with the given name, or <code>-1</code> if there is none
+     */
+    public int bucketNamed(String name) {
+        for (int bucket = 0 ; bucket < size() ; bucket++) {
+            if (getName(bucket).equals(name)) {
+                return bucket;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Resolves the sub-field to query for a prefix of the given length, when grams are not limited in size.
+     *
+     * @see #resolveField(String, int, int)
+     */
+    public String resolveField(String field, int prefixLength) {
+        return resolveField(field, prefixLength, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Resolves the sub-field to query for a prefix of the given length.
+     * <p>
+     * No gram is larger than <code>maxGram</code>, hence longer prefixes are to be truncated to that size,
+     * and are looked up in the sub-field holding that size.
+     * </p>
+     *
+     * @param field the name of the parent field
+     * @param prefixLength the length of the prefix, counted the same way as gram sizes
+     * @param maxGram the largest generated gram
+     * @return the full name of the sub-field holding the grams of that length
+     */
+    public String resolveField(String field, int prefixLength, int maxGram) {
+        return field + "." + getName(bucketOf(Math.min(prefixLength, maxGram)));
+    }
+
+    private void checkBucket(int bucket) {
+        if (bucket < 0 || bucket > upperBounds.length) {
+            throw new IllegalArgumentException("bucket must be between 0 and " + upperBounds.length);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        EdgeNGram2Buckets that = (EdgeNGram2Buckets) o;
+
+        return Arrays.equals(upperBounds, that.upperBounds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(upperBounds);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(upperBounds);
+    }
+}
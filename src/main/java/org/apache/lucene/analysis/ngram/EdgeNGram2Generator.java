@@ -0,0 +1,154 @@
+package org.apache.lucene.analysis.ngram;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.ngram.EdgeNGram2TokenFilter.Side;
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * Generates the edge n-grams of a term, as configured by an {@link EdgeNGram2Plan}.
+ * <p>
+ * This is the core of {@link EdgeNGram2TokenFilter}, usable without any {@link org.apache.lucene.analysis.TokenStream}.
+ * Grams are pushed to a {@link GramSink} as slices of the given buffer, nothing gets allocated per term nor per gram.
+ * </p>
+ * <p>
+ * A generator is not thread-safe, as it reuses some internal state from one term to the next.
+ * </p>
+ */
+public final class EdgeNGram2Generator {
+
+    /**
+     * Receives the grams of a term.
+     */
+    public static interface GramSink {
+
+        /**
+         * Called once per gram, by increasing gram size.
+         *
+         * @param buf the buffer holding the gram, must not be modified
+         * @param start the index of the first char of the gram in <code>buf</code>
+         * @param len the length of the gram, in chars
+         * @param startOffset the start offset of the gram
+         * @param endOffset the end offset of the gram
+         * @param posIncr the position increment of the gram
+         */
+        void gram(char[] buf, int start, int len, int startOffset, int endOffset, int posIncr);
+    }
+
+    private EdgeNGram2Plan plan;
+    private int[] boundaries = new int[0]; // char index of each code point, only for terms holding surrogates when counting in code points
+
+    public EdgeNGram2Generator(EdgeNGram2Plan plan) {
+        setPlan(plan);
+    }
+
+    public EdgeNGram2Plan getPlan() {
+        return plan;
+    }
+
+    public void setPlan(EdgeNGram2Plan plan) {
+        if (plan == null) {
+            throw new IllegalArgumentException("plan must not be null");
+        }
+        this.plan = plan;
+    }
+
+    /**
+     * Generates the grams of the given term.
+     * <p>
+     * The first gram gets the given position increment.
+     * When preserving positions, the following ones get <code>0</code>, otherwise they get the same.
+     * </p>
+     * <p>
+     * The largest gram depends on the term size, see {@link EdgeNGram2Plan#getMaxGram(int)}.
+     * </p>
+     *
+     * @param buf the buffer holding the term
+     * @param off the index of the first char of the term in <code>buf</code>
+     * @param len the length of the term, in chars
+     * @param startOffset the start offset of the term
+     * @param endOffset the end offset of the term
+     * @param posIncr the position increment of the first gram
+     * @param sink the {@link GramSink} receiving the grams
+     * @return the number of generated grams
+     */
+    public int generate(char[] buf, int off, int len, int startOffset, int endOffset, int posIncr, GramSink sink) {
+        // Without any surrogate, code points and chars match one to one, and the boundary table is not needed
+        final boolean codePoints = plan.isCodePoints() && hasSurrogate(buf, off, len);
+        final boolean front = plan.getSide() == Side.FRONT;
+        final boolean preservePositions = plan.isPreservePositions();
+        final int size = codePoints ? computeBoundaries(buf, off, len) : len;
+        // if length by start + end offsets doesn't match the term text then assume
+        // this is a synonym and don't adjust the offsets.
+        final boolean hasIllegalOffsets = (startOffset + len) != endOffset;
+        final int maxGram = plan.getMaxGram(size);
+        final boolean alwaysFullTerm = plan.isAlwaysFullTerm();
+        int count = 0;
+        int gramSize = plan.getMinGram();
+        while (gramSize <= size) { // if the input is too short, we can't generate any n-grams
+            // grab gramSize chars (or code points) from front or back
+            int start = front ? 0 : (codePoints ? boundaries[size - gramSize] : len - gramSize);
+            int end = front ? (codePoints ? boundaries[gramSize] : gramSize) : len;
+            if (hasIllegalOffsets) {
+                sink.gram(buf, off + start, end - start, startOffset, endOffset, posIncr);
+            } else {
+                sink.gram(buf, off + start, end - start, startOffset + start, startOffset + end, posIncr);
+            }
+            if (preservePositions)
+                posIncr = 0; // collapse next tokens at same position
+            count++;
+            if (gramSize < maxGram) {
+                gramSize++;
+            } else if (alwaysFullTerm && gramSize < size) {
+                gramSize = size; // skip right to the full term
+            } else {
+                break;
+            }
+        }
+        return count;
+    }
+
+    private static boolean hasSurrogate(char[] buf, int off, int len) {
+        final int limit = off + len;
+        for (int i = off ; i < limit ; i++) {
+            final char c = buf[i];
+            if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fills the code point boundary table of the given term, in a single scan.
+     * @return the number of code points in the term
+     */
+    private int computeBoundaries(char[] buf, int off, int len) {
+        if (boundaries.length <= len) {
+            boundaries = ArrayUtil.grow(boundaries, len + 1);
+        }
+        final int limit = off + len;
+        int size = 0;
+        int i = off;
+        while (i < limit) {
+            i += Character.charCount(Character.codePointAt(buf, i, limit));
+            boundaries[++size] = i - off;
+        }
+        return size;
+    }
+}
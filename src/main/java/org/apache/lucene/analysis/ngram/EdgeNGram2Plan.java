@@ -0,0 +1,207 @@
+package org.apache.lucene.analysis.ngram;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.ngram.EdgeNGram2TokenFilter.Side;
+
+import java.util.Arrays;
+
+/**
+ * Immutable, validated configuration of an {@link EdgeNGram2TokenFilter}.
+ * <p>
+ * A single plan can be shared by any number of filters without locking.
+ * Changing the configuration means building a new plan.
+ * </p>
+ * <p>
+ * The largest gram size can be made relative to the term size, using a table of ratios.
+ * Each ratio applies to the terms at least as long as its associated size, and shorter than the next one.
+ * Eg. the sizes <code>7</code> and ratios <code>0.6</code> keep full prefixes up to 6, and 60% of longer terms.
+ * The full term can be generated in addition, whatever the largest gram size.
+ * </p>
+ */
+public final class EdgeNGram2Plan {
+
+    private final Side side;
+    private final int minGram;
+    private final int maxGram;
+    private final boolean preservePositions;
+    private final boolean codePoints;
+    private final int[] ratioSizes;
+    private final double[] ratios;
+    private final boolean alwaysFullTerm;
+
+    /**
+     * Creates a plan for generating n-grams in the sizes of the given range
+     *
+     * @param side the {@link Side} from which to chop off an n-gram
+     * @param minGram the smallest n-gram to generate
+     * @param maxGram the largest n-gram to generate
+     * @param preservePositions whether to preserve input tokens' positions
+     * @param codePoints whether to count gram sizes in code points rather than in chars
+     */
+    public EdgeNGram2Plan(Side side, int minGram, int maxGram, boolean preservePositions, boolean codePoints) {
+        this(side, minGram, maxGram, preservePositions, codePoints, new int[0], new double[0], false);
+    }
+
+    /**
+     * Creates a plan for generating n-grams in the sizes of the given range, further limited by the term size
+     *
+     * @param side the {@link Side} from which to chop off an n-gram
+     * @param minGram the smallest n-gram to generate
+     * @param maxGram the largest n-gram to generate
+     * @param preservePositions whether to preserve input tokens' positions
+     * @param codePoints whether to count gram sizes in code points rather than in chars
+     * @param ratioSizes the strictly increasing term sizes from which each ratio applies
+     * @param ratios the ratios of the term size to use as largest n-gram, between 0 excluded and 1
+     * @param alwaysFullTerm whether to generate the full term, even if larger than the largest n-gram
+     */
+    public EdgeNGram2Plan(Side side, int minGram, int maxGram, boolean preservePositions, boolean codePoints,
+                          int[] ratioSizes, double[] ratios, boolean alwaysFullTerm) {
+        if (side == null) {
+            throw new IllegalArgumentException("sideLabel must be either front or back");
+        }
+
+        if (minGram < 1) {
+            throw new IllegalArgumentException("minGram must be greater than zero");
+        }
+
+        if (minGram > maxGram) {
+            throw new IllegalArgumentException("minGram must not be greater than maxGram");
+        }
+
+        if (ratioSizes == null || ratios == null || ratioSizes.length != ratios.length) {
+            throw new IllegalArgumentException("ratioSizes and ratios must have the same length");
+        }
+
+        int previous = 0;
+        for (int i = 0 ; i < ratios.length ; i++) {
+            if (ratioSizes[i] <= previous) {
+                throw new IllegalArgumentException("ratioSizes must be strictly increasing and greater than zero");
+            }
+            if (!(ratios[i] > 0 && ratios[i] <= 1)) {
+                throw new IllegalArgumentException("ratios must be greater than zero and not greater than one");
+            }
+            previous = ratioSizes[i];
+        }
+
+        this.side = side;
+        this.minGram = minGram;
+        this.maxGram = maxGram;
+        this.preservePositions = preservePositions;
+        this.codePoints = codePoints;
+        this.ratioSizes = ratioSizes.clone();
+        this.ratios = ratios.clone();
+        this.alwaysFullTerm = alwaysFullTerm;
+    }
+
+    public Side getSide() {
+        return side;
+    }
+
+    public int getMinGram() {
+        return minGram;
+    }
+
+    public int getMaxGram() {
+        return maxGram;
+    }
+
+    public boolean isPreservePositions() {
+        return preservePositions;
+    }
+
+    public boolean isCodePoints() {
+        return codePoints;
+    }
+
+    public boolean isAlwaysFullTerm() {
+        return alwaysFullTerm;
+    }
+
+    /**
+     * Computes the largest n-gram to generate for a term of the given size, not taking the full term into account.
+     *
+     * @param termSize the size of the term, counted the same way as gram sizes
+     * @return the largest n-gram size, less than {@link #getMinGram()} if the term is too short
+     */
+    public int getMaxGram(int termSize) {
+        int max = Math.min(maxGram, termSize);
+        int idx = Arrays.binarySearch(ratioSizes, termSize);
+        if (idx < 0) {
+            idx = -idx - 2; // the greatest size lower than the term size
+        }
+        if (idx >= 0) {
+            // never cut below minGram, and leave some slack for floating point errors
+            int cut = (int) Math.ceil(ratios[idx] * termSize - 1e-9);
+            max = Math.min(max, Math.max(cut, minGram));
+        }
+        return max;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        EdgeNGram2Plan that = (EdgeNGram2Plan) o;
+
+        if (alwaysFullTerm != that.alwaysFullTerm) return false;
+        if (codePoints != that.codePoints) return false;
+        if (maxGram != that.maxGram) return false;
+        if (minGram != that.minGram) return false;
+        if (preservePositions != that.preservePositions) return false;
+        if (side != that.side) return false;
+        if (!Arrays.equals(ratioSizes, that.ratioSizes)) return false;
+        if (!Arrays.equals(ratios, that.ratios)) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = side.hashCode();
+        result = 31 * result + minGram;
+        result = 31 * result + maxGram;
+        result = 31 * result + (preservePositions ? 1 : 0);
+        result = 31 * result + (codePoints ? 1 : 0);
+        result = 31 * result + Arrays.hashCode(ratioSizes);
+        result = 31 * result + Arrays.hashCode(ratios);
+        result = 31 * result + (alwaysFullTerm ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "side=" + side.getLabel()
+                + ",min_gram=" + minGram
+                + ",max_gram=" + maxGram
+                + ",preserve_positions=" + preservePositions
+                + ",code_points=" + codePoints
+                + ",max_gram_ratios=" + ratiosToString()
+                + ",always_full_term=" + alwaysFullTerm;
+    }
+
+    private String ratiosToString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0 ; i < ratios.length ; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(ratioSizes[i]).append(':').append(ratios[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -22,14 +22,29 @@ import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Tokenizes the given token into n-grams of given size(s).
  * <p>
  * This {@link TokenFilter} create n-grams from the beginning edge or ending edge of a input token.
  * </p>
+ * <p>
+ * Gram sizes are counted in UTF-16 chars by default.
+ * When counting in code points, supplementary characters are never split in half.
+ * </p>
+ * <p>
+ * The configuration is held by an immutable {@link EdgeNGram2Plan}.
+ * When given a reference to a plan, the filter picks up its current value on each {@link #reset()}.
+ * </p>
+ * <p>
+ * The grams are computed by an {@link EdgeNGram2Generator}, which can be used directly outside of any analysis chain.
+ * </p>
  */
 public final class EdgeNGram2TokenFilter extends TokenFilter {
     public static final String NAME = "edge_ngram_2";
@@ -39,6 +54,8 @@ public final class EdgeNGram2TokenFilter extends TokenFilter {
     public static final int DEFAULT_MAX_GRAM_SIZE = 1;
     public static final int DEFAULT_MIN_GRAM_SIZE = 1;
     public static final boolean DEFAULT_PRESERVE_POSITIONS = false;
+    public static final boolean DEFAULT_CODE_POINTS = false;
+    public static final boolean DEFAULT_ALWAYS_FULL_TERM = false;
 
     /** Specifies which side of the input the n-gram should be generated from */
     public static enum Side {
@@ -69,17 +86,11 @@ public final class EdgeNGram2TokenFilter extends TokenFilter {
         }
     }
 
-    private final int minGram;
-    private final int maxGram;
-    private Side side;
-    private boolean preservePositions;
-    private char[] curTermBuffer;
-    private int curTermLength;
-    private int curGramSize;
-    private int tokStart;
-    private int tokEnd; // only used if the length changed before this filter
-    private boolean hasIllegalOffsets; // only if the length changed before this filter
-    private int curPosIncr;
+    private final AtomicReference<EdgeNGram2Plan> planRef;
+    private final EdgeNGram2Generator generator;
+    private final Grams grams = new Grams();
+    private char[] curTermBuffer = new char[0];
+    private int curGram;
     private int accumPosIncr;
 
     private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
@@ -108,24 +119,55 @@ public final class EdgeNGram2TokenFilter extends TokenFilter {
      * @param preservePositions whether to preserve input tokens' positions
      */
     public EdgeNGram2TokenFilter(TokenStream input, Side side, int minGram, int maxGram, boolean preservePositions) {
+        this(input, side, minGram, maxGram, preservePositions, DEFAULT_CODE_POINTS);
+    }
+
+    /**
+     * Creates EdgeNGram2TokenFilter that can generate n-grams in the sizes of the given range
+     *
+     * @param input {@link TokenStream} holding the input to be tokenized
+     * @param side the {@link Side} from which to chop off an n-gram
+     * @param minGram the smallest n-gram to generate
+     * @param maxGram the largest n-gram to generate
+     * @param preservePositions whether to preserve input tokens' positions
+     * @param codePoints whether to count gram sizes in code points rather than in chars
+     */
+    public EdgeNGram2TokenFilter(TokenStream input, Side side, int minGram, int maxGram, boolean preservePositions, boolean codePoints) {
+        this(input, new EdgeNGram2Plan(side, minGram, maxGram, preservePositions, codePoints));
+    }
+
+    /**
+     * Creates EdgeNGram2TokenFilter that generates n-grams as configured by the given plan
+     *
+     * @param input {@link TokenStream} holding the input to be tokenized
+     * @param plan the {@link EdgeNGram2Plan} to follow
+     */
+    public EdgeNGram2TokenFilter(TokenStream input, EdgeNGram2Plan plan) {
         super(input);
 
-        if (side == null) {
-            throw new IllegalArgumentException("sideLabel must be either front or back");
+        if (plan == null) {
+            throw new IllegalArgumentException("plan must not be null");
         }
 
-        if (minGram < 1) {
-            throw new IllegalArgumentException("minGram must be greater than zero");
-        }
+        this.planRef = null;
+        this.generator = new EdgeNGram2Generator(plan);
+    }
+
+    /**
+     * Creates EdgeNGram2TokenFilter that generates n-grams as configured by the referenced plan
+     *
+     * @param input {@link TokenStream} holding the input to be tokenized
+     * @param planRef the reference to the {@link EdgeNGram2Plan} to follow, read again on each {@link #reset()}
+     */
+    public EdgeNGram2TokenFilter(TokenStream input, AtomicReference<EdgeNGram2Plan> planRef) {
+        super(input);
 
-        if (minGram > maxGram) {
-            throw new IllegalArgumentException("minGram must not be greater than maxGram");
+        if (planRef == null || planRef.get() == null) {
+            throw new IllegalArgumentException("plan must not be null");
         }
 
-        this.minGram = minGram;
-        this.maxGram = maxGram;
-        this.side = side;
-        this.preservePositions = preservePositions;
+        this.planRef = planRef;
+        this.generator = new EdgeNGram2Generator(planRef.get());
     }
 
     /**
@@ -153,58 +195,99 @@ public final class EdgeNGram2TokenFilter extends TokenFilter {
         this(input, Side.getSide(sideLabel), minGram, maxGram, preservePositions);
     }
 
+    /**
+     * Creates EdgeNGram2TokenFilter that can generate n-grams in the sizes of the given range
+     *
+     * @param input {@link TokenStream} holding the input to be tokenized
+     * @param sideLabel the name of the {@link Side} from which to chop off an n-gram
+     * @param minGram the smallest n-gram to generate
+     * @param maxGram the largest n-gram to generate
+     * @param preservePositions whether to preserve input tokens' positions
+     * @param codePoints whether to count gram sizes in code points rather than in chars
+     */
+    public EdgeNGram2TokenFilter(TokenStream input, String sideLabel, int minGram, int maxGram, boolean preservePositions, boolean codePoints) {
+        this(input, Side.getSide(sideLabel), minGram, maxGram, preservePositions, codePoints);
+    }
+
     @Override
     public final boolean incrementToken() throws IOException {
         while (true) {
-            if (curTermBuffer == null) {
-                if (!input.incrementToken()) {
-                    return false;
-                } else {
-                    curTermBuffer = termAtt.buffer().clone();
-                    curTermLength = termAtt.length();
-                    curGramSize = minGram;
-                    tokStart = offsetAtt.startOffset();
-                    tokEnd = offsetAtt.endOffset();
-                    // if length by start + end offsets doesn't match the term text then assume
-                    // this is a synonym and don't adjust the offsets.
-                    hasIllegalOffsets = (tokStart + curTermLength) != tokEnd;
-                    curPosIncr = preservePositions
-                            ? posIncrAtt.getPositionIncrement() // preserve input position gaps
-                            : 1;                                // always use a new position
-                }
+            if (curGram < grams.count) {
+                clearAttributes();
+                termAtt.copyBuffer(curTermBuffer, grams.starts[curGram], grams.lengths[curGram]);
+                offsetAtt.setOffset(grams.startOffsets[curGram], grams.endOffsets[curGram]);
+                posIncrAtt.setPositionIncrement(grams.posIncrs[curGram]);
+                curGram++;
+                return true;
+            }
+            if (!input.incrementToken()) {
+                return false;
             }
-            if (curGramSize <= maxGram) {
-                if (! (curGramSize > curTermLength         // if the remaining input is too short, we can't generate any n-grams
-                        || curGramSize > maxGram)) {       // if we have hit the end of our n-gram size range, quit
-                    // grab gramSize chars from front or back
-                    int start = side == Side.FRONT ? 0 : curTermLength - curGramSize;
-                    int end = start + curGramSize;
-                    clearAttributes();
-                    if (hasIllegalOffsets) {
-                        offsetAtt.setOffset(tokStart, tokEnd);
-                    } else {
-                        offsetAtt.setOffset(tokStart + start, tokStart + end);
-                    }
-                    termAtt.copyBuffer(curTermBuffer, start, curGramSize);
-                    curGramSize++;
-                    posIncrAtt.setPositionIncrement(curPosIncr + accumPosIncr);
-                    accumPosIncr = 0;
-                    if (preservePositions)
-                        curPosIncr = 0; // collapse next tokens at same position
-                    return true;
-                }
+            int curTermLength = termAtt.length();
+            if (curTermBuffer.length < curTermLength) {
+                curTermBuffer = ArrayUtil.grow(curTermBuffer, curTermLength);
             }
-            if (preservePositions) {
+            System.arraycopy(termAtt.buffer(), 0, curTermBuffer, 0, curTermLength);
+            boolean preservePositions = generator.getPlan().isPreservePositions();
+            int curPosIncr = preservePositions
+                    ? posIncrAtt.getPositionIncrement() // preserve input position gaps
+                    : 1;                                // always use a new position
+            curGram = 0;
+            grams.count = 0;
+            if (generator.generate(curTermBuffer, 0, curTermLength, offsetAtt.startOffset(), offsetAtt.endOffset(), curPosIncr + accumPosIncr, grams) > 0) {
+                accumPosIncr = 0;
+            } else if (preservePositions) {
                 // keep track of the empty positions to be leaped over
                 accumPosIncr += curPosIncr;
             }
-            curTermBuffer = null;
         }
     }
 
+    public EdgeNGram2Plan getPlan() {
+        return generator.getPlan();
+    }
+
     @Override
     public void reset() throws IOException {
         super.reset();
-        curTermBuffer = null;
+        curGram = 0;
+        grams.count = 0;
+        accumPosIncr = 0;
+        if (planRef != null) {
+            EdgeNGram2Plan newPlan = planRef.get();
+            if (newPlan != null) {
+                generator.setPlan(newPlan);
+            }
+        }
+    }
+
+    /**
+     * Buffers the grams of the current term, to be emitted one by one.
+     */
+    private static final class Grams implements EdgeNGram2Generator.GramSink {
+        int count;
+        int[] starts = new int[0];
+        int[] lengths = new int[0];
+        int[] startOffsets = new int[0];
+        int[] endOffsets = new int[0];
+        int[] posIncrs = new int[0];
+
+        @Override
+        public void gram(char[] buf, int start, int len, int startOffset, int endOffset, int posIncr) {
+            if (count == starts.length) {
+                int size = ArrayUtil.oversize(count + 1, RamUsageEstimator.NUM_BYTES_INT);
+                starts = Arrays.copyOf(starts, size);
+                lengths = Arrays.copyOf(lengths, size);
+                startOffsets = Arrays.copyOf(startOffsets, size);
+                endOffsets = Arrays.copyOf(endOffsets, size);
+                posIncrs = Arrays.copyOf(posIncrs, size);
+            }
+            starts[count] = start;
+            lengths[count] = len;
+            startOffsets[count] = startOffset;
+            endOffsets[count] = endOffset;
+            posIncrs[count] = posIncr;
+            count++;
+        }
     }
 }
@@ -0,0 +1,303 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.UnicodeUtil;
+import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.io.FastCharArrayReader;
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.indices.analysis.AnalysisCacheService;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Wraps an analyzer, replaying the tokens of the texts it has already analyzed from an {@link AnalysisCacheService}.
+ * <p>
+ * Entries are keyed by the identity of the analyzer, the field name and the text.
+ * The identity must change whenever the wrapped analyzer could produce different tokens, eg. when its settings change.
+ * </p>
+ * <p>
+ * Only the term, offsets, position increment and type of the tokens are kept,
+ * other attributes, like payloads or keyword markers, are lost.
+ * </p>
+ */
+public class CachedAnalyzer extends Analyzer {
+
+    private final Analyzer wrapped;
+
+    private final AnalysisCacheService cache;
+
+    private volatile String identity;
+
+    /**
+     * @param wrapped the analyzer to cache the tokens of
+     * @param cache the cache holding the tokens
+     * @param identity the identity of the wrapped analyzer
+     */
+    public CachedAnalyzer(Analyzer wrapped, AnalysisCacheService cache, String identity) {
+        super(new PerFieldReuseStrategy());
+        if (wrapped == null) {
+            throw new IllegalArgumentException("wrapped must not be null");
+        }
+        this.wrapped = wrapped;
+        this.cache = cache;
+        identity(identity);
+    }
+
+    /**
+     * For subclasses resolving the wrapped analyzer lazily, by overriding {@link #wrapped()}.
+     */
+    protected CachedAnalyzer(AnalysisCacheService cache, String identity) {
+        super(new PerFieldReuseStrategy());
+        this.wrapped = null;
+        this.cache = cache;
+        identity(identity);
+    }
+
+    protected Analyzer wrapped() {
+        return wrapped;
+    }
+
+    public String identity() {
+        return identity;
+    }
+
+    /**
+     * Changes the identity of the wrapped analyzer, so that tokens cached beforehand are not replayed anymore.
+     */
+    public void identity(String identity) {
+        if (identity == null) {
+            throw new IllegalArgumentException("identity must not be null");
+        }
+        if (!identity.equals(this.identity)) {
+            this.identity = identity;
+        }
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+        return new TokenStreamComponents(new CachingTokenizer(reader, fieldName));
+    }
+
+    @Override
+    public int getPositionIncrementGap(String fieldName) {
+        return wrapped().getPositionIncrementGap(fieldName);
+    }
+
+    /**
+     * Reads the whole text on reset, then either replays its cached tokens,
+     * or analyzes it using the wrapped analyzer while recording the tokens into the cache.
+     * <p>
+     * Tokens are recorded as a flag telling whether a token follows,
+     * the term length and chars, the start offset, the token length, the position increment,
+     * and a flag telling whether the type is the same as the previous token, followed by the type otherwise.
+     * The final offset comes last.
+     * </p>
+     */
+    private final class CachingTokenizer extends Tokenizer {
+
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+        private final PositionIncrementAttribute posIncrAtt = addAttribute(PositionIncrementAttribute.class);
+        private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+        private final String fieldName;
+
+        private String keyIdentity; // the identity keyIdentityBytes were computed from
+        private byte[] keyIdentityBytes;
+
+        private char[] text = new char[256];
+        private int textLength;
+        private final BytesRef utf8 = new BytesRef();
+        private String key;
+
+        private String lastType;
+        private int finalOffset;
+
+        private BytesStreamInput replay;
+
+        private TokenStream delegate;
+        private CharTermAttribute delegateTermAtt;
+        private OffsetAttribute delegateOffsetAtt;
+        private PositionIncrementAttribute delegatePosIncrAtt;
+        private TypeAttribute delegateTypeAtt;
+        private final BytesStreamOutput record = new BytesStreamOutput();
+
+        CachingTokenizer(Reader input, String fieldName) {
+            super(input);
+            this.fieldName = fieldName;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            readText();
+            lastType = null;
+            finalOffset = 0;
+            replay = null;
+            closeDelegate();
+
+            byte[] cached = null;
+            if (cache.enabled()) {
+                String currentIdentity = identity;
+                if (currentIdentity != keyIdentity) {
+                    keyIdentity = currentIdentity;
+                    keyIdentityBytes = (currentIdentity + '\0' + fieldName).getBytes(Charsets.UTF_8);
+                }
+                UnicodeUtil.UTF16toUTF8(text, 0, textLength, utf8);
+                key = cache.key(keyIdentityBytes, utf8);
+                cached = cache.get(key);
+            }
+            if (cached != null) {
+                cache.saved(utf8.length);
+                replay = new BytesStreamInput(cached, false);
+            } else {
+                record.reset();
+                delegate = wrapped().tokenStream(fieldName, new FastCharArrayReader(text, 0, textLength));
+                delegateTermAtt = delegate.addAttribute(CharTermAttribute.class);
+                delegateOffsetAtt = delegate.addAttribute(OffsetAttribute.class);
+                delegatePosIncrAtt = delegate.addAttribute(PositionIncrementAttribute.class);
+                delegateTypeAtt = delegate.addAttribute(TypeAttribute.class);
+                delegate.reset();
+            }
+        }
+
+        private void readText() throws IOException {
+            textLength = 0;
+            while (true) {
+                if (textLength == text.length) {
+                    text = ArrayUtil.grow(text, textLength + 1);
+                }
+                int read = input.read(text, textLength, text.length - textLength);
+                if (read < 0) {
+                    break;
+                }
+                textLength += read;
+            }
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            clearAttributes();
+            if (replay != null) {
+                return replayToken();
+            }
+            if (delegate == null) {
+                return false;
+            }
+            if (!delegate.incrementToken()) {
+                delegate.end();
+                finalOffset = delegateOffsetAtt.endOffset();
+                if (cache.enabled()) {
+                    // Only complete streams get cached
+                    record.writeBoolean(false);
+                    record.writeVInt(finalOffset);
+                    cache.put(key, record.bytes().toBytes());
+                }
+                closeDelegate();
+                return false;
+            }
+            termAtt.copyBuffer(delegateTermAtt.buffer(), 0, delegateTermAtt.length());
+            offsetAtt.setOffset(delegateOffsetAtt.startOffset(), delegateOffsetAtt.endOffset());
+            posIncrAtt.setPositionIncrement(delegatePosIncrAtt.getPositionIncrement());
+            typeAtt.setType(delegateTypeAtt.type());
+            if (cache.enabled()) {
+                recordToken();
+            }
+            return true;
+        }
+
+        private void recordToken() throws IOException {
+            record.writeBoolean(true);
+            final char[] buffer = termAtt.buffer();
+            final int length = termAtt.length();
+            record.writeVInt(length);
+            for (int i = 0 ; i < length ; i++) {
+                record.writeVInt(buffer[i]);
+            }
+            record.writeVInt(offsetAtt.startOffset());
+            record.writeVInt(offsetAtt.endOffset() - offsetAtt.startOffset());
+            record.writeVInt(posIncrAtt.getPositionIncrement());
+            String type = typeAtt.type();
+            boolean sameType = type.equals(lastType);
+            record.writeBoolean(sameType);
+            if (!sameType) {
+                record.writeString(type);
+                lastType = type;
+            }
+        }
+
+        private boolean replayToken() throws IOException {
+            if (!replay.readBoolean()) {
+                finalOffset = replay.readVInt();
+                replay = null;
+                return false;
+            }
+            // Decoded straight into the attributes, nothing gets allocated but new types
+            final int length = replay.readVInt();
+            final char[] buffer = termAtt.resizeBuffer(length);
+            for (int i = 0 ; i < length ; i++) {
+                buffer[i] = (char) replay.readVInt();
+            }
+            termAtt.setLength(length);
+            final int startOffset = replay.readVInt();
+            offsetAtt.setOffset(startOffset, startOffset + replay.readVInt());
+            posIncrAtt.setPositionIncrement(replay.readVInt());
+            if (!replay.readBoolean()) {
+                lastType = replay.readString();
+            }
+            typeAtt.setType(lastType);
+            return true;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            offsetAtt.setOffset(finalOffset, finalOffset);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            // A stream that has not been consumed up to its end is not cached
+            closeDelegate();
+            replay = null;
+        }
+
+        private void closeDelegate() throws IOException {
+            if (delegate != null) {
+                TokenStream delegate = this.delegate;
+                this.delegate = null;
+                delegate.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Injector;
+import org.elasticsearch.common.inject.assistedinject.Assisted;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.settings.IndexSettings;
+import org.elasticsearch.index.settings.IndexSettingsService;
+import org.elasticsearch.indices.analysis.AnalysisCacheService;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Provides the <code>cached</code> analyzer type, wrapping the analyzer given by the <code>analyzer</code> setting,
+ * see {@link CachedAnalyzer}.
+ * <p>
+ * The identity of the analyzer is made of the index name, the analyzer name,
+ * and all the analysis settings of the index, including the live overrides of the <code>edge_ngram_2</code> filters.
+ * It gets updated along with the index settings.
+ * </p>
+ * <p>
+ * Requiring settings keeps this type from being bound as an analyzer of its own in every index.
+ * </p>
+ */
+@AnalysisSettingsRequired
+public class CachedAnalyzerProvider extends AbstractIndexAnalyzerProvider<CachedAnalyzer> {
+
+    public static final String NAME = "cached";
+
+    private final CachedAnalyzer analyzer;
+
+    @Inject
+    public CachedAnalyzerProvider(Index index, @IndexSettings Settings indexSettings, final Injector injector,
+                                  AnalysisCacheService analysisCacheService, IndexSettingsService indexSettingsService,
+                                  @Assisted final String name, @Assisted Settings settings) {
+        super(index, indexSettings, name, settings);
+        final String wrappedName = settings.get("analyzer");
+        if (wrappedName == null) {
+            throw new ElasticSearchIllegalArgumentException("analyzer [" + name + "] must have an [analyzer] setting");
+        }
+        if (wrappedName.equals(name)) {
+            throw new ElasticSearchIllegalArgumentException("analyzer [" + name + "] cannot wrap itself");
+        }
+        this.analyzer = new CachedAnalyzer(analysisCacheService, identity(index.name(), name, indexSettings)) {
+            private volatile Analyzer wrapped;
+
+            @Override
+            protected Analyzer wrapped() {
+                Analyzer rtn = wrapped;
+                if (rtn == null) {
+                    // The AnalysisService is being built along with this analyzer, hence the lazy lookup
+                    rtn = injector.getInstance(AnalysisService.class).analyzer(wrappedName);
+                    if (rtn == null) {
+                        throw new ElasticSearchIllegalArgumentException("analyzer [" + name + "] wraps unknown analyzer [" + wrappedName + "]");
+                    }
+                    wrapped = rtn;
+                }
+                return rtn;
+            }
+        };
+        indexSettingsService.addListener(new ApplySettings());
+    }
+
+    @Override
+    public CachedAnalyzer get() {
+        return analyzer;
+    }
+
+    /**
+     * Computes the identity of a <code>cached</code> analyzer.
+     *
+     * @param index the name of the index
+     * @param name the name of the analyzer
+     * @param indexSettings the settings of the index, only the analysis ones are taken into account
+     */
+    public static String identity(String index, String name, Settings indexSettings) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(index).append('\0').append(name);
+        Map<String, String> analysisSettings = new TreeMap<String, String>();
+        for (Map.Entry<String, String> entry : indexSettings.getAsMap().entrySet()) {
+            if (entry.getKey().startsWith("index.analysis.") || entry.getKey().startsWith(EdgeNGram2TokenFilterFactory.OVERRIDES_PREFIX)) {
+                analysisSettings.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, String> entry : analysisSettings.entrySet()) {
+            sb.append('\0').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    class ApplySettings implements IndexSettingsService.Listener {
+        @Override
+        public void onRefreshSettings(Settings indexSettings) {
+            analyzer.identity(identity(index().name(), name(), indexSettings));
+        }
+    }
+}
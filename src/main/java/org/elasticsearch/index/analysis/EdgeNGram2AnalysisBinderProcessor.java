@@ -32,4 +32,9 @@ public class EdgeNGram2AnalysisBinderProcessor extends AnalysisModule.AnalysisBi
             tokenFiltersBindings.processTokenFilter(name, EdgeNGram2TokenFilterFactory.class);
     }
 
+    @Override
+    public void processAnalyzers(AnalyzersBindings analyzersBindings) {
+        analyzersBindings.processAnalyzer(CachedAnalyzerProvider.NAME, CachedAnalyzerProvider.class);
+    }
+
 }
@@ -20,38 +20,246 @@
 package org.elasticsearch.index.analysis;
 
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.ngram.EdgeNGram2Buckets;
+import org.apache.lucene.analysis.ngram.EdgeNGram2Plan;
 import org.apache.lucene.analysis.ngram.EdgeNGram2TokenFilter;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.assistedinject.Assisted;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.settings.IndexSettings;
+import org.elasticsearch.index.settings.IndexSettingsService;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
- *
+ * Compiles the filter settings into an {@link EdgeNGram2Plan}, shared by all the created filters.
+ * <p>
+ * The filter settings listed in {@link #DYNAMIC_KEYS} can be overridden on an open index,
+ * using the index settings under {@link #OVERRIDES_PREFIX}<code>&lt;filter name&gt;.</code>, see {@link #DYNAMIC_SETTINGS}.
+ * A new plan is then compiled and swapped in, and filters pick it up on their next reset.
+ * Keeping the overrides out of <code>index.analysis</code> leaves the settings of all other filters static.
+ * </p>
+ * <p>
+ * When <code>buckets</code> and <code>bucket</code> are given, the gram sizes are restricted to that bucket,
+ * see {@link EdgeNGram2Buckets}.
+ * At query time, {@link #clampPrefix(String)} and {@link #resolveField(String, int)} tell which gram to look up, and where.
+ * </p>
+ * <p>
+ * The largest gram can be made relative to the term size, using either <code>max_gram_ratio</code>,
+ * or a <code>max_gram_ratios</code> table giving the ratio to use from each term size on.
+ * </p>
  */
 public class EdgeNGram2TokenFilterFactory extends AbstractTokenFilterFactory {
 
-    private final int minGram;
+    public static final String OVERRIDES_PREFIX = "index.edge_ngram_2.";
 
-    private final int maxGram;
+    public static final String[] DYNAMIC_KEYS = {
+            "min_gram",
+            "max_gram",
+            "side",
+            "preserve_positions",
+            "code_points",
+            "max_gram_ratio",
+            "max_gram_ratios.*",
+            "always_full_term",
+    };
+
+    public static final String[] DYNAMIC_SETTINGS = new String[DYNAMIC_KEYS.length];
+    static {
+        for (int i = 0 ; i < DYNAMIC_KEYS.length ; i++) {
+            DYNAMIC_SETTINGS[i] = OVERRIDES_PREFIX + "*." + DYNAMIC_KEYS[i];
+        }
+    }
 
-    private final EdgeNGram2TokenFilter.Side side;
+    private final Settings settings;
 
-    private final boolean preservePositions;
+    private final EdgeNGram2Buckets buckets;
+
+    private final AtomicReference<EdgeNGram2Plan> plan;
+
+    private volatile int maxGram; // the largest gram of all buckets, the plan being restricted to a single one
 
     @Inject
-    public EdgeNGram2TokenFilterFactory(Index index, @IndexSettings Settings indexSettings, @Assisted String name, @Assisted Settings settings) {
+    public EdgeNGram2TokenFilterFactory(Index index, @IndexSettings Settings indexSettings, IndexSettingsService indexSettingsService, @Assisted String name, @Assisted Settings settings) {
         super(index, indexSettings, name, settings);
-        this.minGram = settings.getAsInt("min_gram", EdgeNGram2TokenFilter.DEFAULT_MIN_GRAM_SIZE);
+        this.settings = settings;
+        this.buckets = parseBuckets(settings);
+        this.plan = new AtomicReference<EdgeNGram2Plan>(compile(settings));
         this.maxGram = settings.getAsInt("max_gram", EdgeNGram2TokenFilter.DEFAULT_MAX_GRAM_SIZE);
-        this.preservePositions = settings.getAsBoolean("preserve_positions", EdgeNGram2TokenFilter.DEFAULT_PRESERVE_POSITIONS);
-        this.side = EdgeNGram2TokenFilter.Side.getSide(settings.get("side", EdgeNGram2TokenFilter.DEFAULT_SIDE.getLabel()));
+        // Overrides made before this index got opened on this node
+        applyOverrides(indexSettings);
+        indexSettingsService.addListener(new ApplySettings());
+    }
+
+    public EdgeNGram2Plan plan() {
+        return plan.get();
+    }
+
+    /**
+     * @return the gram size buckets, used to resolve the sub-field to query, or <code>null</code> if not bucketed
+     */
+    public EdgeNGram2Buckets buckets() {
+        return buckets;
+    }
+
+    /**
+     * @return the size of the given text, counted the same way as gram sizes
+     */
+    public int gramSize(String text) {
+        return plan.get().isCodePoints() ? text.codePointCount(0, text.length()) : text.length();
+    }
+
+    /**
+     * Truncates the given prefix, or suffix if grams are taken from the back, to the largest generated gram.
+     */
+    public String clampPrefix(String prefix) {
+        EdgeNGram2Plan plan = this.plan.get();
+        int max = maxGram;
+        if (gramSize(prefix) <= max) {
+            return prefix;
+        }
+        if (plan.getSide() == EdgeNGram2TokenFilter.Side.FRONT) {
+            return prefix.substring(0, plan.isCodePoints() ? prefix.offsetByCodePoints(0, max) : max);
+        } else {
+            return prefix.substring(plan.isCodePoints() ? prefix.offsetByCodePoints(prefix.length(), -max) : prefix.length() - max);
+        }
+    }
+
+    /**
+     * Resolves the sub-field to query for a prefix of the given length, taking the largest generated gram into account.
+     *
+     * @see EdgeNGram2Buckets#resolveField(String, int, int)
+     */
+    public String resolveField(String field, int prefixLength) {
+        if (buckets == null) {
+            throw new ElasticSearchIllegalArgumentException("filter [" + name() + "] does not define buckets");
+        }
+        return buckets.resolveField(field, prefixLength, maxGram);
     }
 
     @Override
     public TokenStream create(TokenStream tokenStream) {
-        return new EdgeNGram2TokenFilter(tokenStream, side, minGram, maxGram, preservePositions);
+        return new EdgeNGram2TokenFilter(tokenStream, plan);
+    }
+
+    public static EdgeNGram2Plan compile(Settings settings) {
+        String sideLabel = settings.get("side", EdgeNGram2TokenFilter.DEFAULT_SIDE.getLabel());
+        EdgeNGram2TokenFilter.Side side = EdgeNGram2TokenFilter.Side.getSide(sideLabel);
+        if (side == null) {
+            throw new ElasticSearchIllegalArgumentException("side must be either front or back, got [" + sideLabel + "]");
+        }
+        int minGram = settings.getAsInt("min_gram", EdgeNGram2TokenFilter.DEFAULT_MIN_GRAM_SIZE);
+        int maxGram = settings.getAsInt("max_gram", EdgeNGram2TokenFilter.DEFAULT_MAX_GRAM_SIZE);
+        boolean alwaysFullTerm = settings.getAsBoolean("always_full_term", EdgeNGram2TokenFilter.DEFAULT_ALWAYS_FULL_TERM);
+        EdgeNGram2Buckets buckets = parseBuckets(settings);
+        if (buckets != null) {
+            if (alwaysFullTerm) {
+                throw new ElasticSearchIllegalArgumentException("always_full_term cannot be used with buckets");
+            }
+            String bucketName = settings.get("bucket");
+            int bucket = bucketName == null ? -1 : buckets.bucketNamed(bucketName);
+            if (bucket < 0) {
+                throw new ElasticSearchIllegalArgumentException("bucket must be one of the buckets defined by [" + buckets + "], got [" + bucketName + "]");
+            }
+            minGram = Math.max(minGram, buckets.getMin(bucket));
+            maxGram = Math.min(maxGram, buckets.getMax(bucket));
+            if (minGram > maxGram) {
+                throw new ElasticSearchIllegalArgumentException("bucket [" + bucketName + "] does not intersect the range of min_gram and max_gram");
+            }
+        }
+        Map<String, String> ratiosMap = settings.getByPrefix("max_gram_ratios.").getAsMap();
+        String ratio = settings.get("max_gram_ratio");
+        if (ratio != null) {
+            if (!ratiosMap.isEmpty()) {
+                throw new ElasticSearchIllegalArgumentException("max_gram_ratio and max_gram_ratios cannot be used together");
+            }
+            ratiosMap = Collections.singletonMap("1", ratio);
+        }
+        TreeMap<Integer, Double> sortedRatios = new TreeMap<Integer, Double>();
+        try {
+            for (Map.Entry<String, String> entry : ratiosMap.entrySet()) {
+                sortedRatios.put(Integer.parseInt(entry.getKey().trim()), Double.parseDouble(entry.getValue().trim()));
+            }
+        } catch (NumberFormatException e) {
+            throw new ElasticSearchIllegalArgumentException("invalid max_gram_ratios " + ratiosMap + ": " + e.getMessage(), e);
+        }
+        int[] ratioSizes = new int[sortedRatios.size()];
+        double[] ratios = new double[sortedRatios.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Double> entry : sortedRatios.entrySet()) {
+            ratioSizes[i] = entry.getKey();
+            ratios[i] = entry.getValue();
+            i++;
+        }
+        try {
+            return new EdgeNGram2Plan(side, minGram, maxGram,
+                    settings.getAsBoolean("preserve_positions", EdgeNGram2TokenFilter.DEFAULT_PRESERVE_POSITIONS),
+                    settings.getAsBoolean("code_points", EdgeNGram2TokenFilter.DEFAULT_CODE_POINTS),
+                    ratioSizes, ratios, alwaysFullTerm);
+        } catch (IllegalArgumentException e) {
+            throw new ElasticSearchIllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    public static EdgeNGram2Buckets parseBuckets(Settings settings) {
+        String[] bounds = settings.getAsArray("buckets");
+        if (bounds == null || bounds.length == 0) {
+            return null;
+        }
+        int[] upperBounds = new int[bounds.length];
+        try {
+            for (int i = 0 ; i < bounds.length ; i++) {
+                upperBounds[i] = Integer.parseInt(bounds[i].trim());
+            }
+            return new EdgeNGram2Buckets(upperBounds);
+        } catch (IllegalArgumentException e) {
+            throw new ElasticSearchIllegalArgumentException("invalid buckets " + Arrays.toString(bounds) + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the overrides of the dynamic settings of the given filter, found in the given index settings
+     */
+    public static Settings overrides(Settings indexSettings, String name) {
+        ImmutableSettings.Builder builder = ImmutableSettings.settingsBuilder();
+        for (Map.Entry<String, String> entry : indexSettings.getByPrefix(OVERRIDES_PREFIX + name + ".").getAsMap().entrySet()) {
+            if (Regex.simpleMatch(DYNAMIC_KEYS, entry.getKey())) {
+                builder.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return builder.build();
+    }
+
+    private void applyOverrides(Settings indexSettings) {
+        Settings merged = ImmutableSettings.settingsBuilder().put(settings).put(overrides(indexSettings, name())).build();
+        EdgeNGram2Plan newPlan;
+        try {
+            newPlan = compile(merged);
+        } catch (Exception e) {
+            logger.warn("ignoring invalid settings update for filter [{}]", e, name());
+            return;
+        }
+        EdgeNGram2Plan oldPlan = plan.get();
+        if (!newPlan.equals(oldPlan)) {
+            logger.info("updating filter [{}] from [{}] to [{}]", name(), oldPlan, newPlan);
+            maxGram = merged.getAsInt("max_gram", EdgeNGram2TokenFilter.DEFAULT_MAX_GRAM_SIZE);
+            plan.set(newPlan);
+        }
+    }
+
+    class ApplySettings implements IndexSettingsService.Listener {
+        @Override
+        public void onRefreshSettings(Settings indexSettings) {
+            applyOverrides(indexSettings);
+        }
     }
 }
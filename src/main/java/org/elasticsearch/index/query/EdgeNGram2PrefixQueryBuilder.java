@@ -0,0 +1,70 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * A query looking up a prefix in the gram size buckets of a field, see {@link EdgeNGram2PrefixQueryParser}.
+ */
+public class EdgeNGram2PrefixQueryBuilder extends BaseQueryBuilder {
+
+    private final String name;
+
+    private final String filter;
+
+    private final String value;
+
+    private float boost = -1;
+
+    /**
+     * @param name the name of the parent field, holding one sub-field per bucket
+     * @param filter the name of any of the <code>edge_ngram_2</code> filters of these sub-fields
+     * @param value the prefix to look up
+     */
+    public EdgeNGram2PrefixQueryBuilder(String name, String filter, String value) {
+        this.name = name;
+        this.filter = filter;
+        this.value = value;
+    }
+
+    /**
+     * Sets the boost for this query.  Documents matching this query will (in addition to the normal
+     * weightings) have their score multiplied by the boost provided.
+     */
+    public EdgeNGram2PrefixQueryBuilder boost(float boost) {
+        this.boost = boost;
+        return this;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(EdgeNGram2PrefixQueryParser.NAME);
+        builder.field("field", name);
+        builder.field("filter", filter);
+        builder.field("value", value);
+        if (boost != -1) {
+            builder.field("boost", boost);
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.analysis.EdgeNGram2TokenFilterFactory;
+import org.elasticsearch.index.analysis.TokenFilterFactory;
+import org.elasticsearch.index.mapper.MapperService;
+
+import java.io.IOException;
+
+import static org.elasticsearch.index.query.support.QueryParsers.wrapSmartNameQuery;
+
+/**
+ * Looks up a prefix in the gram size buckets of a field, see {@link EdgeNGram2PrefixQueryBuilder}.
+ * <p>
+ * The prefix is truncated to the largest gram of the given <code>edge_ngram_2</code> filter,
+ * and looked up as a single term in the sub-field holding grams of that size.
+ * The prefix is not analyzed.
+ * </p>
+ */
+public class EdgeNGram2PrefixQueryParser implements QueryParser {
+
+    public static final String NAME = "edge_ngram_2_prefix";
+
+    public EdgeNGram2PrefixQueryParser() {
+    }
+
+    @Override
+    public String[] names() {
+        return new String[]{NAME, "edgeNGram2Prefix"};
+    }
+
+    @Override
+    public Query parse(QueryParseContext parseContext) throws IOException, QueryParsingException {
+        XContentParser parser = parseContext.parser();
+
+        String fieldName = null;
+        String filterName = null;
+        String value = null;
+        float boost = 1.0f;
+
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue()) {
+                if ("field".equals(currentFieldName)) {
+                    fieldName = parser.text();
+                } else if ("filter".equals(currentFieldName)) {
+                    filterName = parser.text();
+                } else if ("value".equals(currentFieldName) || "prefix".equals(currentFieldName)) {
+                    value = parser.text();
+                } else if ("boost".equals(currentFieldName)) {
+                    boost = parser.floatValue();
+                } else {
+                    throw new QueryParsingException(parseContext.index(), "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                }
+            } else {
+                throw new QueryParsingException(parseContext.index(), "[" + NAME + "] query does not support [" + currentFieldName + "]");
+            }
+        }
+
+        if (fieldName == null) {
+            throw new QueryParsingException(parseContext.index(), "[" + NAME + "] requires a field");
+        }
+        if (filterName == null) {
+            throw new QueryParsingException(parseContext.index(), "[" + NAME + "] requires a filter");
+        }
+        if (value == null || value.isEmpty()) {
+            throw new QueryParsingException(parseContext.index(), "[" + NAME + "] requires a value");
+        }
+
+        TokenFilterFactory tokenFilterFactory = parseContext.analysisService().tokenFilter(filterName);
+        if (!(tokenFilterFactory instanceof EdgeNGram2TokenFilterFactory)) {
+            throw new QueryParsingException(parseContext.index(), "[" + NAME + "] filter [" + filterName + "] is not an edge_ngram_2 filter");
+        }
+        EdgeNGram2TokenFilterFactory factory = (EdgeNGram2TokenFilterFactory) tokenFilterFactory;
+        if (factory.buckets() == null) {
+            throw new QueryParsingException(parseContext.index(), "[" + NAME + "] filter [" + filterName + "] does not define buckets");
+        }
+
+        String gram = factory.clampPrefix(value);
+        String subFieldName = factory.resolveField(fieldName, factory.gramSize(gram));
+
+        MapperService.SmartNameFieldMappers smartNameFieldMappers = parseContext.smartFieldMappers(subFieldName);
+        String indexFieldName = subFieldName;
+        if (smartNameFieldMappers != null && smartNameFieldMappers.hasMapper()) {
+            indexFieldName = smartNameFieldMappers.mapper().names().indexName();
+        }
+
+        Query query = new TermQuery(new Term(indexFieldName, gram));
+        query.setBoost(boost);
+        return wrapSmartNameQuery(query, smartNameFieldMappers, parseContext);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.indices.analysis;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.CacheStats;
+import org.elasticsearch.common.cache.RemovalListener;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.cache.Weigher;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-level cache of analyzed texts, used by the <code>cached</code> analyzers.
+ * <p>
+ * Entries are keyed by a SHA-1 hash of the analyzer identity and of the text,
+ * and hold the serialized tokens, replayed on a cache hit instead of analyzing the text again.
+ * The cache is bounded by the total size of its entries, which is kept up to date as entries come and go.
+ * Entries are kept on the heap: there is no off-heap storage, see the README.
+ * </p>
+ */
+public class AnalysisCacheService extends AbstractComponent implements ToXContent {
+
+    public static final String SETTING_SIZE = "edgengram2.analysis_cache.size";
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new ElasticSearchException("SHA-1 is not available", e);
+            }
+        }
+    };
+
+    private final Cache<String, byte[]> cache;
+
+    private final AtomicLong sizeInBytes = new AtomicLong();
+
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    @Inject
+    public AnalysisCacheService(Settings settings) {
+        super(settings);
+        ByteSizeValue size = settings.getAsBytesSize(SETTING_SIZE, new ByteSizeValue(0));
+        if (size.bytes() <= 0) {
+            this.cache = null;
+            return;
+        }
+        logger.debug("using analysis cache with size [{}]", size);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(size.bytes())
+                .weigher(new Weigher<String, byte[]>() {
+                    @Override
+                    public int weigh(String key, byte[] value) {
+                        return weight(key, value);
+                    }
+                })
+                .removalListener(new RemovalListener<String, byte[]>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, byte[]> notification) {
+                        sizeInBytes.addAndGet(-weight(notification.getKey(), notification.getValue()));
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    private static int weight(String key, byte[] value) {
+        return key.length() * 2 + value.length;
+    }
+
+    /**
+     * @return whether the cache is enabled, that is whether it was given a positive size
+     */
+    public boolean enabled() {
+        return cache != null;
+    }
+
+    /**
+     * Computes the cache key of a text.
+     *
+     * @param analyzerIdentity some bytes changing whenever the analyzer, its settings, or the analyzed field change
+     * @param text the analyzed text, encoded in UTF-8
+     */
+    public String key(byte[] analyzerIdentity, BytesRef text) {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        digest.update(analyzerIdentity);
+        digest.update((byte) 0);
+        digest.update(text.bytes, text.offset, text.length);
+        return Base64.encodeBytes(digest.digest());
+    }
+
+    /**
+     * @return the serialized tokens of the given key, or <code>null</code> on a cache miss or if disabled
+     */
+    public byte[] get(String key) {
+        return cache == null ? null : cache.getIfPresent(key);
+    }
+
+    public void put(String key, byte[] tokens) {
+        if (cache == null) {
+            return;
+        }
+        // Count the entry before it gets in, so that its eviction never makes the size go negative
+        sizeInBytes.addAndGet(weight(key, tokens));
+        cache.put(key, tokens);
+    }
+
+    /**
+     * Records that a text of the given size, in UTF-8 bytes, did not have to be analyzed.
+     */
+    public void saved(int textBytes) {
+        savedBytes.addAndGet(textBytes);
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    public long count() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * @return the size of the cached entries, in bytes
+     */
+    public long sizeInBytes() {
+        return sizeInBytes.get();
+    }
+
+    /**
+     * @return the total size of the texts that did not have to be analyzed, in UTF-8 bytes
+     */
+    public long savedBytes() {
+        return savedBytes.get();
+    }
+
+    /**
+     * @return the statistics of the cache, all zeros if disabled
+     */
+    public CacheStats stats() {
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        CacheStats stats = stats();
+        builder.startObject(Fields.CACHE);
+        builder.field(Fields.ENTRIES, count());
+        builder.field(Fields.SIZE_IN_BYTES, sizeInBytes());
+        builder.field(Fields.HIT_COUNT, stats.hitCount());
+        builder.field(Fields.MISS_COUNT, stats.missCount());
+        builder.field(Fields.HIT_RATE, stats.hitRate());
+        builder.field(Fields.EVICTIONS, stats.evictionCount());
+        builder.field(Fields.SAVED_IN_BYTES, savedBytes());
+        builder.endObject();
+        return builder;
+    }
+
+    static final class Fields {
+        static final XContentBuilderString CACHE = new XContentBuilderString("cache");
+        static final XContentBuilderString ENTRIES = new XContentBuilderString("entries");
+        static final XContentBuilderString SIZE_IN_BYTES = new XContentBuilderString("size_in_bytes");
+        static final XContentBuilderString HIT_COUNT = new XContentBuilderString("hit_count");
+        static final XContentBuilderString MISS_COUNT = new XContentBuilderString("miss_count");
+        static final XContentBuilderString HIT_RATE = new XContentBuilderString("hit_rate");
+        static final XContentBuilderString EVICTIONS = new XContentBuilderString("evictions");
+        static final XContentBuilderString SAVED_IN_BYTES = new XContentBuilderString("saved_in_bytes");
+    }
+}
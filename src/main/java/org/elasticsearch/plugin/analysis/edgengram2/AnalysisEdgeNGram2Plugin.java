@@ -19,16 +19,32 @@
 
 package org.elasticsearch.plugin.analysis.edgengram2;
 
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.collect.ImmutableList;
+import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.index.analysis.AnalysisModule;
 import org.elasticsearch.index.analysis.EdgeNGram2AnalysisBinderProcessor;
+import org.elasticsearch.index.analysis.EdgeNGram2TokenFilterFactory;
+import org.elasticsearch.index.query.EdgeNGram2PrefixQueryParser;
+import org.elasticsearch.indices.query.IndicesQueriesModule;
 import org.elasticsearch.plugins.AbstractPlugin;
+import org.elasticsearch.rest.RestModule;
+import org.elasticsearch.rest.action.admin.indices.analyze.BulkAnalyzeService;
+import org.elasticsearch.rest.action.admin.indices.analyze.RestBulkAnalyzeAction;
+
+import java.util.Collection;
 
 /**
  * @author ofavre
  */
 public class AnalysisEdgeNGram2Plugin extends AbstractPlugin {
 
+    static {
+        // Loaded on every node, including the master validating settings updates
+        IndexMetaData.addDynamicSettings(EdgeNGram2TokenFilterFactory.DYNAMIC_SETTINGS);
+    }
+
     @Override public String name() {
         return "analysis-edgengram2";
     }
@@ -37,10 +53,24 @@ public class AnalysisEdgeNGram2Plugin extends AbstractPlugin {
         return "Improved EdgeNGram token filter";
     }
 
+    @Override public Collection<Class<? extends Module>> modules() {
+        return ImmutableList.<Class<? extends Module>>of(EdgeNGram2Module.class);
+    }
+
+    @Override public Collection<Class<? extends LifecycleComponent>> services() {
+        return ImmutableList.<Class<? extends LifecycleComponent>>of(BulkAnalyzeService.class);
+    }
+
     @Override public void processModule(Module module) {
         if (module instanceof AnalysisModule) {
             AnalysisModule analysisModule = (AnalysisModule) module;
             analysisModule.addProcessor(new EdgeNGram2AnalysisBinderProcessor());
+        } else if (module instanceof RestModule) {
+            RestModule restModule = (RestModule) module;
+            restModule.addRestAction(RestBulkAnalyzeAction.class);
+        } else if (module instanceof IndicesQueriesModule) {
+            IndicesQueriesModule indicesQueriesModule = (IndicesQueriesModule) module;
+            indicesQueriesModule.addQuery(new EdgeNGram2PrefixQueryParser());
         }
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.rest.action.admin.indices.analyze;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.ElasticSearchIllegalStateException;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the worker pool of {@link RestBulkAnalyzeAction}, and its limits.
+ * <p>
+ * The pool is created when the node starts, and shut down when it stops.
+ * </p>
+ */
+public class BulkAnalyzeService extends AbstractLifecycleComponent<BulkAnalyzeService> {
+
+    public static final String SETTING_POOL_SIZE = "edgengram2.bulk_analyze.size";
+    public static final String SETTING_WINDOW = "edgengram2.bulk_analyze.window";
+    public static final String SETTING_MAX_LINES = "edgengram2.bulk_analyze.max_lines";
+
+    public static final int DEFAULT_MAX_LINES = 10000;
+
+    private final int size;
+
+    private final int window;
+
+    private final int maxLines;
+
+    private volatile ExecutorService executor;
+
+    @Inject
+    public BulkAnalyzeService(Settings settings) {
+        super(settings);
+        this.size = settings.getAsInt(SETTING_POOL_SIZE, Runtime.getRuntime().availableProcessors());
+        this.window = settings.getAsInt(SETTING_WINDOW, size * 4);
+        this.maxLines = settings.getAsInt(SETTING_MAX_LINES, DEFAULT_MAX_LINES);
+        if (size < 1) {
+            throw new ElasticSearchIllegalArgumentException("[" + SETTING_POOL_SIZE + "] must be at least 1, got [" + size + "]");
+        }
+        if (window < 1) {
+            throw new ElasticSearchIllegalArgumentException("[" + SETTING_WINDOW + "] must be at least 1, got [" + window + "]");
+        }
+        if (maxLines < 1) {
+            throw new ElasticSearchIllegalArgumentException("[" + SETTING_MAX_LINES + "] must be at least 1, got [" + maxLines + "]");
+        }
+    }
+
+    /**
+     * @return the maximum number of texts being analyzed at once for a request
+     */
+    public int window() {
+        return window;
+    }
+
+    /**
+     * @return the maximum number of texts accepted in a single request
+     */
+    public int maxLines() {
+        return maxLines;
+    }
+
+    public ExecutorService executor() {
+        ExecutorService executor = this.executor;
+        if (executor == null) {
+            throw new ElasticSearchIllegalStateException("bulk analyze service is not started");
+        }
+        return executor;
+    }
+
+    @Override
+    protected void doStart() throws ElasticSearchException {
+        executor = Executors.newFixedThreadPool(size, EsExecutors.daemonThreadFactory(settings, "bulk_analyze"));
+    }
+
+    @Override
+    protected void doStop() throws ElasticSearchException {
+        ExecutorService executor = this.executor;
+        this.executor = null;
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    protected void doClose() throws ElasticSearchException {
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.rest.action.admin.indices.analyze;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.FastStringReader;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.indices.analysis.AnalysisCacheService;
+import org.elasticsearch.indices.analysis.IndicesAnalysisService;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.XContentRestResponse;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestStatus.OK;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+/**
+ * Analyzes a newline-delimited list of texts in a single request.
+ * <p>
+ * Texts are analyzed in parallel on the fixed-size pool of the {@link BulkAnalyzeService}.
+ * Each worker reuses the {@link TokenStream} the {@link Analyzer} keeps for its thread.
+ * Only a bounded window of texts is in flight at any time,
+ * and results are written out in input order as soon as they are available.
+ * </p>
+ * <p>
+ * As the whole request and response are held in memory, requests holding more than
+ * {@link BulkAnalyzeService#maxLines()} texts are rejected.
+ * </p>
+ * <p>
+ * Texts analyzed by a <code>cached</code> analyzer go through the {@link AnalysisCacheService},
+ * whose statistics are then added to the response.
+ * </p>
+ */
+public class RestBulkAnalyzeAction extends BaseRestHandler {
+
+    private final IndicesService indicesService;
+
+    private final IndicesAnalysisService indicesAnalysisService;
+
+    private final ThreadPool threadPool;
+
+    private final BulkAnalyzeService bulkAnalyzeService;
+
+    private final AnalysisCacheService analysisCacheService;
+
+    @Inject
+    public RestBulkAnalyzeAction(Settings settings, Client client, RestController controller,
+                                 IndicesService indicesService, IndicesAnalysisService indicesAnalysisService, ThreadPool threadPool,
+                                 BulkAnalyzeService bulkAnalyzeService, AnalysisCacheService analysisCacheService) {
+        super(settings, client);
+        this.indicesService = indicesService;
+        this.indicesAnalysisService = indicesAnalysisService;
+        this.threadPool = threadPool;
+        this.bulkAnalyzeService = bulkAnalyzeService;
+        this.analysisCacheService = analysisCacheService;
+        controller.registerHandler(GET, "/_bulk_analyze", this);
+        controller.registerHandler(GET, "/{index}/_bulk_analyze", this);
+        controller.registerHandler(POST, "/_bulk_analyze", this);
+        controller.registerHandler(POST, "/{index}/_bulk_analyze", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel) {
+        // Keep the network thread free, the work itself is dispatched to the bulk analyze pool
+        threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    XContentBuilder builder = restContentBuilder(request);
+                    analyze(request, builder);
+                    channel.sendResponse(new XContentRestResponse(request, OK, builder));
+                } catch (Throwable e) {
+                    try {
+                        channel.sendResponse(new XContentThrowableRestResponse(request, e));
+                    } catch (IOException e1) {
+                        logger.error("Failed to send failure response", e1);
+                    }
+                }
+            }
+        });
+    }
+
+    private void analyze(RestRequest request, XContentBuilder builder) throws IOException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+        String analyzerName = request.param("analyzer");
+        if (analyzerName == null) {
+            throw new ElasticSearchIllegalArgumentException("analyzer is missing");
+        }
+        String index = request.param("index");
+        final Analyzer analyzer = resolveAnalyzer(index, analyzerName);
+        final String field = request.param("field", "_all");
+        BytesArray content = request.hasContent()
+                ? request.content().toBytesArray()
+                : new BytesArray(request.param("text", ""));
+        // Lines are split on the raw UTF-8 bytes, and only decoded one at a time
+        final byte[] bytes = content.array();
+        final int offset = content.arrayOffset();
+        final int length = content.length();
+        int lines = countLines(bytes, offset, length);
+        if (lines > bulkAnalyzeService.maxLines()) {
+            throw new ElasticSearchIllegalArgumentException("too many texts, got [" + lines + "] but at most [" + bulkAnalyzeService.maxLines() + "] are accepted");
+        }
+        ExecutorService executor = bulkAnalyzeService.executor();
+        int window = bulkAnalyzeService.window();
+
+        builder.startObject();
+        builder.startArray(Fields.RESULTS);
+        ArrayDeque<Future<List<Token>>> inFlight = new ArrayDeque<Future<List<Token>>>(window);
+        int count = 0;
+        try {
+            int pos = 0;
+            while (pos < length) {
+                int eol = indexOfNewLine(bytes, offset + pos, offset + length) - offset;
+                int end = eol > pos && bytes[offset + eol - 1] == '\r' ? eol - 1 : eol;
+                final String text = new String(bytes, offset + pos, end - pos, Charsets.UTF_8);
+                pos = eol + 1;
+                if (inFlight.size() >= window) {
+                    writeResult(inFlight.poll(), builder);
+                }
+                inFlight.add(executor.submit(new Callable<List<Token>>() {
+                    @Override
+                    public List<Token> call() throws Exception {
+                        return analyze(analyzer, field, text);
+                    }
+                }));
+                count++;
+            }
+            while (!inFlight.isEmpty()) {
+                writeResult(inFlight.poll(), builder);
+            }
+        } finally {
+            for (Future<List<Token>> future : inFlight) {
+                future.cancel(false);
+            }
+        }
+        builder.endArray();
+        builder.field(Fields.COUNT, count);
+        builder.field(Fields.TOOK, System.currentTimeMillis() - startTime);
+        if (analysisCacheService.enabled()) {
+            analysisCacheService.toXContent(builder, request);
+        }
+        builder.endObject();
+    }
+
+    /**
+     * @return the index of the next new line, or <code>to</code> if there is none
+     */
+    private static int indexOfNewLine(byte[] bytes, int from, int to) {
+        for (int i = from ; i < to ; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * @return the number of lines, a trailing new line not starting an additional empty line
+     */
+    private static int countLines(byte[] bytes, int offset, int length) {
+        int lines = 0;
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            pos = indexOfNewLine(bytes, pos, end) + 1;
+            lines++;
+        }
+        return lines;
+    }
+
+    private Analyzer resolveAnalyzer(String index, String analyzerName) {
+        Analyzer analyzer = null;
+        if (index != null) {
+            analyzer = indicesService.indexServiceSafe(index).analysisService().analyzer(analyzerName);
+        }
+        if (analyzer == null) {
+            analyzer = indicesAnalysisService.analyzer(analyzerName);
+        }
+        if (analyzer == null) {
+            throw new ElasticSearchIllegalArgumentException("failed to find analyzer [" + analyzerName + "]");
+        }
+        return analyzer;
+    }
+
+    private static List<Token> analyze(Analyzer analyzer, String field, String text) throws IOException {
+        List<Token> tokens = new ArrayList<Token>();
+        // The analyzer hands back the TokenStream it keeps for the current thread
+        TokenStream stream = analyzer.tokenStream(field, new FastStringReader(text));
+        try {
+            stream.reset();
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posIncr = stream.addAttribute(PositionIncrementAttribute.class);
+            OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+            TypeAttribute type = stream.addAttribute(TypeAttribute.class);
+            int position = 0;
+            while (stream.incrementToken()) {
+                position += posIncr.getPositionIncrement();
+                tokens.add(new Token(term.toString(), position, offset.startOffset(), offset.endOffset(), type.type()));
+            }
+            stream.end();
+        } finally {
+            stream.close();
+        }
+        return tokens;
+    }
+
+    private static void writeResult(Future<List<Token>> future, XContentBuilder builder) throws IOException, InterruptedException {
+        List<Token> tokens;
+        try {
+            tokens = future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("failed to analyze text", cause);
+        }
+        builder.startObject();
+        builder.startArray(Fields.TOKENS);
+        for (Token token : tokens) {
+            builder.startObject();
+            builder.field(Fields.TOKEN, token.term);
+            builder.field(Fields.START_OFFSET, token.startOffset);
+            builder.field(Fields.END_OFFSET, token.endOffset);
+            builder.field(Fields.TYPE, token.type);
+            builder.field(Fields.POSITION, token.position);
+            builder.endObject();
+        }
+        builder.endArray();
+        builder.endObject();
+    }
+
+    static final class Token {
+        final String term;
+        final int position;
+        final int startOffset;
+        final int endOffset;
+        final String type;
+
+        Token(String term, int position, int startOffset, int endOffset, String type) {
+            this.term = term;
+            this.position = position;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.type = type;
+        }
+    }
+
+    static final class Fields {
+        static final XContentBuilderString RESULTS = new XContentBuilderString("results");
+        static final XContentBuilderString COUNT = new XContentBuilderString("count");
+        static final XContentBuilderString TOOK = new XContentBuilderString("took");
+        static final XContentBuilderString TOKENS = new XContentBuilderString("tokens");
+        static final XContentBuilderString TOKEN = new XContentBuilderString("token");
+        static final XContentBuilderString START_OFFSET = new XContentBuilderString("start_offset");
+        static final XContentBuilderString END_OFFSET = new XContentBuilderString("end_offset");
+        static final XContentBuilderString TYPE = new XContentBuilderString("type");
+        static final XContentBuilderString POSITION = new XContentBuilderString("position");
+    }
+}
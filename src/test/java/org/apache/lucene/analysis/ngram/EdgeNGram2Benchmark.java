@@ -0,0 +1,163 @@
+package org.apache.lucene.analysis.ngram;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.util.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link EdgeNGram2TokenFilter} and {@link EdgeNGram2Generator}.
+ * <p>
+ * All benchmarks tokenize the same text, {@link #tokenizer()} being the baseline.
+ * {@link #filter()} generates grams through the filter, {@link #generator()} feeds each term to the generator directly,
+ * showing the cost of the {@link org.apache.lucene.analysis.TokenStream} machinery on top of gram generation.
+ * </p>
+ * <p>
+ * The text only holds BMP characters, Latin or CJK, so that counting in code points
+ * never changes the generated grams, and any difference is the cost of <code>code_points</code> itself.
+ * </p>
+ * <p>
+ * Not run by the test suite. Run it using:
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.apache.lucene.analysis.ngram.EdgeNGram2Benchmark</code>
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EdgeNGram2Benchmark {
+
+    private static final int WORDS = 10000;
+
+    @Param({"latin", "cjk"})
+    public String script;
+
+    @Param({"false", "true"})
+    public boolean codePoints;
+
+    private String text;
+
+    private Tokenizer tokenizer;
+
+    private EdgeNGram2TokenFilter filter;
+
+    private Tokenizer generatorTokenizer;
+
+    private EdgeNGram2Generator generator;
+
+    private final CountingSink sink = new CountingSink();
+
+    private static final class CountingSink implements EdgeNGram2Generator.GramSink {
+        int count;
+
+        @Override
+        public void gram(char[] buf, int start, int len, int startOffset, int endOffset, int posIncr) {
+            count++;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        char first = "cjk".equals(script) ? '\u4E00' : 'a';
+        int range = "cjk".equals(script) ? 0x5000 : 26;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0 ; i < WORDS ; i++) {
+            int length = 1 + random.nextInt(12);
+            for (int j = 0 ; j < length ; j++) {
+                sb.append((char) (first + random.nextInt(range)));
+            }
+            sb.append(' ');
+        }
+        text = sb.toString();
+        tokenizer = new WhitespaceTokenizer(Version.LUCENE_41, new StringReader(""));
+        EdgeNGram2Plan plan = new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.FRONT, 1, 10, false, codePoints);
+        filter = new EdgeNGram2TokenFilter(tokenizer, plan);
+        generatorTokenizer = new WhitespaceTokenizer(Version.LUCENE_41, new StringReader(""));
+        generator = new EdgeNGram2Generator(plan);
+    }
+
+    @Benchmark
+    public int tokenizer() throws IOException {
+        generatorTokenizer.setReader(new StringReader(text));
+        generatorTokenizer.reset();
+        int count = 0;
+        while (generatorTokenizer.incrementToken()) {
+            count++;
+        }
+        generatorTokenizer.end();
+        generatorTokenizer.close();
+        return count;
+    }
+
+    @Benchmark
+    public int generator() throws IOException {
+        generatorTokenizer.setReader(new StringReader(text));
+        generatorTokenizer.reset();
+        CharTermAttribute term = generatorTokenizer.addAttribute(CharTermAttribute.class);
+        OffsetAttribute offset = generatorTokenizer.addAttribute(OffsetAttribute.class);
+        sink.count = 0;
+        while (generatorTokenizer.incrementToken()) {
+            generator.generate(term.buffer(), 0, term.length(), offset.startOffset(), offset.endOffset(), 1, sink);
+        }
+        generatorTokenizer.end();
+        generatorTokenizer.close();
+        return sink.count;
+    }
+
+    @Benchmark
+    public int filter() throws IOException {
+        tokenizer.setReader(new StringReader(text));
+        filter.reset();
+        int count = 0;
+        while (filter.incrementToken()) {
+            count++;
+        }
+        filter.end();
+        filter.close();
+        return count;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EdgeNGram2Benchmark.class.getSimpleName()).build()).run();
+    }
+}
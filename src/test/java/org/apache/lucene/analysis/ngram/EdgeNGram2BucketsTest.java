@@ -0,0 +1,83 @@
+package org.apache.lucene.analysis.ngram;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.util.LuceneTestCase;
+
+/**
+ * Tests {@link EdgeNGram2Buckets} for correctness.
+ */
+public class EdgeNGram2BucketsTest extends LuceneTestCase {
+
+    public void testInvalidBounds() throws Exception {
+        boolean gotException = false;
+        try {
+            new EdgeNGram2Buckets(2, 2);
+        } catch (IllegalArgumentException e) {
+            gotException = true;
+        }
+        assertTrue(gotException);
+    }
+
+    public void testInvalidBounds2() throws Exception {
+        boolean gotException = false;
+        try {
+            new EdgeNGram2Buckets(0, 2);
+        } catch (IllegalArgumentException e) {
+            gotException = true;
+        }
+        assertTrue(gotException);
+    }
+
+    public void testBuckets() throws Exception {
+        EdgeNGram2Buckets buckets = new EdgeNGram2Buckets(2, 5);
+        assertEquals(3, buckets.size());
+        assertEquals("g1_2", buckets.getName(0));
+        assertEquals("g3_5", buckets.getName(1));
+        assertEquals("g6_plus", buckets.getName(2));
+        assertEquals(3, buckets.getMin(1));
+        assertEquals(5, buckets.getMax(1));
+        assertEquals(Integer.MAX_VALUE, buckets.getMax(2));
+        assertEquals(1, buckets.bucketNamed("g3_5"));
+        assertEquals(-1, buckets.bucketNamed("g3_4"));
+    }
+
+    public void testResolveField() throws Exception {
+        EdgeNGram2Buckets buckets = new EdgeNGram2Buckets(2, 5);
+        assertEquals("field.g1_2", buckets.resolveField("field", 1));
+        assertEquals("field.g1_2", buckets.resolveField("field", 2));
+        assertEquals("field.g3_5", buckets.resolveField("field", 3));
+        assertEquals("field.g3_5", buckets.resolveField("field", 5));
+        assertEquals("field.g6_plus", buckets.resolveField("field", 6));
+        assertEquals("field.g6_plus", buckets.resolveField("field", 42));
+    }
+
+    public void testResolveFieldBeyondMaxGram() throws Exception {
+        EdgeNGram2Buckets buckets = new EdgeNGram2Buckets(2, 5);
+        assertEquals("field.g3_5", buckets.resolveField("field", 4, 4));
+        assertEquals("field.g3_5", buckets.resolveField("field", 42, 4));
+        assertEquals("field.g1_2", buckets.resolveField("field", 3, 2));
+        assertEquals("field.g6_plus", buckets.resolveField("field", 42, 10));
+    }
+
+    public void testSingleBucket() throws Exception {
+        EdgeNGram2Buckets buckets = new EdgeNGram2Buckets();
+        assertEquals(1, buckets.size());
+        assertEquals("field.g1_plus", buckets.resolveField("field", 3));
+    }
+}
@@ -0,0 +1,86 @@
+package org.apache.lucene.analysis.ngram;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.util.LuceneTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link EdgeNGram2Generator} for correctness.
+ */
+public class EdgeNGram2GeneratorTest extends LuceneTestCase {
+
+    private static final class CollectingSink implements EdgeNGram2Generator.GramSink {
+        final List<String> grams = new ArrayList<String>();
+
+        @Override
+        public void gram(char[] buf, int start, int len, int startOffset, int endOffset, int posIncr) {
+            grams.add(new String(buf, start, len) + "[" + startOffset + "," + endOffset + ",+" + posIncr + "]");
+        }
+    }
+
+    public void testFront() throws Exception {
+        EdgeNGram2Generator generator = new EdgeNGram2Generator(new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.FRONT, 1, 3, false, false));
+        CollectingSink sink = new CollectingSink();
+        char[] buf = "xxabcdexx".toCharArray();
+        assertEquals(3, generator.generate(buf, 2, 5, 10, 15, 1, sink));
+        assertEquals("[a[10,11,+1], ab[10,12,+1], abc[10,13,+1]]", sink.grams.toString());
+    }
+
+    public void testBackPreserve() throws Exception {
+        EdgeNGram2Generator generator = new EdgeNGram2Generator(new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.BACK, 1, 3, true, false));
+        CollectingSink sink = new CollectingSink();
+        char[] buf = "xxabcdexx".toCharArray();
+        assertEquals(3, generator.generate(buf, 2, 5, 10, 15, 4, sink));
+        assertEquals("[e[14,15,+4], de[13,15,+0], cde[12,15,+0]]", sink.grams.toString());
+    }
+
+    public void testCodePoints() throws Exception {
+        EdgeNGram2Generator generator = new EdgeNGram2Generator(new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.FRONT, 1, 2, false, true));
+        CollectingSink sink = new CollectingSink();
+        char[] buf = "x\uD83D\uDE00ab".toCharArray();
+        assertEquals(2, generator.generate(buf, 1, 4, 0, 4, 1, sink));
+        assertEquals("[\uD83D\uDE00[0,2,+1], \uD83D\uDE00a[0,3,+1]]", sink.grams.toString());
+    }
+
+    public void testCodePointsWithoutSurrogates() throws Exception {
+        // Terms without surrogates skip the boundary table, left over from the previous term
+        EdgeNGram2Generator generator = new EdgeNGram2Generator(new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.BACK, 1, 2, false, true));
+        CollectingSink sink = new CollectingSink();
+        assertEquals(2, generator.generate("a\uD83D\uDE00".toCharArray(), 0, 3, 0, 3, 1, sink));
+        assertEquals(2, generator.generate("abc".toCharArray(), 0, 3, 4, 7, 1, sink));
+        assertEquals("[\uD83D\uDE00[1,3,+1], a\uD83D\uDE00[0,3,+1], c[6,7,+1], bc[5,7,+1]]", sink.grams.toString());
+    }
+
+    public void testIllegalOffsets() throws Exception {
+        EdgeNGram2Generator generator = new EdgeNGram2Generator(new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.FRONT, 1, 2, false, false));
+        CollectingSink sink = new CollectingSink();
+        char[] buf = "ae".toCharArray();
+        assertEquals(2, generator.generate(buf, 0, 2, 0, 1, 1, sink));
+        assertEquals("[a[0,1,+1], ae[0,1,+1]]", sink.grams.toString());
+    }
+
+    public void testTooShort() throws Exception {
+        EdgeNGram2Generator generator = new EdgeNGram2Generator(new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.FRONT, 3, 4, false, false));
+        CollectingSink sink = new CollectingSink();
+        assertEquals(0, generator.generate("ab".toCharArray(), 0, 2, 0, 2, 1, sink));
+        assertTrue(sink.grams.isEmpty());
+    }
+}
@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Tests {@link EdgeNGram2TokenFilter} for correctness.
@@ -177,6 +178,89 @@ public class EdgeNGram2TokenFilterTest extends BaseTokenStreamTestCase {
         assertTokenStreamContents(filter, new String[]{"A","AB","ABC"}, new int[]{0,0,0}, new int[]{1,2,3}, new int[]{1,0,0});
     }
 
+    public void testFrontCodePoints() throws Exception {
+        input = new MockTokenizer(new StringReader("\uD83D\uDE00ab c"), MockTokenizer.WHITESPACE, false);
+        EdgeNGram2TokenFilter tokenizer = new EdgeNGram2TokenFilter(input, EdgeNGram2TokenFilter.Side.FRONT, 1, 3, false, true);
+        assertTokenStreamContents(tokenizer, new String[]{"\uD83D\uDE00","\uD83D\uDE00a","\uD83D\uDE00ab", "c"}, new int[]{0,0,0, 5}, new int[]{2,3,4, 6}, new int[]{1,1,1, 1});
+    }
+
+    public void testBackCodePoints() throws Exception {
+        input = new MockTokenizer(new StringReader("ab\uD83D\uDE00 c"), MockTokenizer.WHITESPACE, false);
+        EdgeNGram2TokenFilter tokenizer = new EdgeNGram2TokenFilter(input, EdgeNGram2TokenFilter.Side.BACK, 1, 3, false, true);
+        assertTokenStreamContents(tokenizer, new String[]{"\uD83D\uDE00","b\uD83D\uDE00","ab\uD83D\uDE00", "c"}, new int[]{2,1,0, 5}, new int[]{4,4,4, 6}, null, new int[]{1,1,1, 1}, null, null, false);
+    }
+
+    public void testOversizedNgramsCodePoints() throws Exception {
+        input = new MockTokenizer(new StringReader("\uD83D\uDE00\uD83D\uDE01"), MockTokenizer.WHITESPACE, false);
+        EdgeNGram2TokenFilter tokenizer = new EdgeNGram2TokenFilter(input, EdgeNGram2TokenFilter.Side.FRONT, 3, 4, false, true);
+        assertTokenStreamContents(tokenizer, new String[0], new int[0], new int[0], new int[0]);
+    }
+
+    public void testBmpCodePoints() throws Exception {
+        EdgeNGram2TokenFilter tokenizer = new EdgeNGram2TokenFilter(input, EdgeNGram2TokenFilter.Side.FRONT, 1, 3, true, true);
+        assertTokenStreamContents(tokenizer, new String[]{"a","ab","abc", "/", "A", "AB", "ABC"}, new int[]{0,0,0, 6, 8,8,8}, new int[]{1,2,3, 7, 9,10,11}, new int[]{1,0,0, 10, 1,0,0});
+    }
+
+    public void testInvalidPlan() throws Exception {
+        boolean gotException = false;
+        try {
+            new EdgeNGram2Plan(null, 1, 2, false, false);
+        } catch (IllegalArgumentException e) {
+            gotException = true;
+        }
+        assertTrue(gotException);
+    }
+
+    public void testPlanSwap() throws Exception {
+        AtomicReference<EdgeNGram2Plan> plan = new AtomicReference<EdgeNGram2Plan>(new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.FRONT, 1, 3, false, false));
+        WhitespaceTokenizer tokenizer = new WhitespaceTokenizer(TEST_VERSION_CURRENT, new StringReader("abcde"));
+        EdgeNGram2TokenFilter filter = new EdgeNGram2TokenFilter(tokenizer, plan);
+        assertTokenStreamContents(filter, new String[]{"a","ab","abc"}, new int[]{0,0,0}, new int[]{1,2,3}, new int[]{1,1,1});
+        plan.set(new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.BACK, 2, 4, true, false));
+        tokenizer.setReader(new StringReader("ABCDE"));
+        assertTokenStreamContents(filter, new String[]{"DE","CDE","BCDE"}, new int[]{3,2,1}, new int[]{5,5,5}, null, new int[]{1,0,0}, null, null, false);
+        assertEquals(plan.get(), filter.getPlan());
+    }
+
+    public void testMaxGramRatio() throws Exception {
+        input = new MockTokenizer(new StringReader("abcdefghij abcdef"), MockTokenizer.WHITESPACE, false);
+        EdgeNGram2Plan plan = new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.FRONT, 2, 20, false, false, new int[]{7}, new double[]{0.5}, false);
+        EdgeNGram2TokenFilter tokenizer = new EdgeNGram2TokenFilter(input, plan);
+        assertTokenStreamContents(tokenizer, new String[]{"ab","abc","abcd","abcde", "ab","abc","abcd","abcde","abcdef"}, new int[]{0,0,0,0, 11,11,11,11,11}, new int[]{2,3,4,5, 13,14,15,16,17}, new int[]{1,1,1,1, 1,1,1,1,1});
+    }
+
+    public void testMaxGramRatioFullTerm() throws Exception {
+        input = new MockTokenizer(new StringReader("abcdefghij abcdef"), MockTokenizer.WHITESPACE, false);
+        EdgeNGram2Plan plan = new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.FRONT, 2, 20, true, false, new int[]{7}, new double[]{0.5}, true);
+        EdgeNGram2TokenFilter tokenizer = new EdgeNGram2TokenFilter(input, plan);
+        assertTokenStreamContents(tokenizer, new String[]{"ab","abc","abcd","abcde","abcdefghij", "ab","abc","abcd","abcde","abcdef"}, new int[]{0,0,0,0,0, 11,11,11,11,11}, new int[]{2,3,4,5,10, 13,14,15,16,17}, new int[]{1,0,0,0,0, 1,0,0,0,0});
+    }
+
+    public void testMaxGramRatioTable() throws Exception {
+        EdgeNGram2Plan plan = new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.FRONT, 1, 20, false, false, new int[]{5, 11}, new double[]{0.6, 0.3}, false);
+        assertEquals(4, plan.getMaxGram(4));
+        assertEquals(3, plan.getMaxGram(5));
+        assertEquals(6, plan.getMaxGram(10));
+        assertEquals(4, plan.getMaxGram(11));
+        assertEquals(20, new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.FRONT, 1, 20, false, false).getMaxGram(30));
+    }
+
+    public void testFullTermBeyondMaxGram() throws Exception {
+        EdgeNGram2Plan plan = new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.BACK, 1, 2, false, false, new int[0], new double[0], true);
+        EdgeNGram2TokenFilter tokenizer = new EdgeNGram2TokenFilter(input, plan);
+        assertTokenStreamContents(tokenizer, new String[]{"e","de","abcde", "/", "E","DE","ABCDE"}, new int[]{4,3,0, 6, 12,11,8}, new int[]{5,5,5, 7, 13,13,13}, null, new int[]{1,1,1, 1, 1,1,1}, null, null, false);
+    }
+
+    public void testInvalidRatio() throws Exception {
+        boolean gotException = false;
+        try {
+            new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.FRONT, 1, 2, false, false, new int[]{3}, new double[]{1.5}, false);
+        } catch (IllegalArgumentException e) {
+            gotException = true;
+        }
+        assertTrue(gotException);
+    }
+
     // LUCENE-3642
     // EdgeNgram blindly adds term length to offset, but this can take things out of bounds
     // wrt original text if a previous filter increases the length of the word (in this case æ -> ae)
@@ -13,11 +13,13 @@ import org.elasticsearch.common.io.Streams;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.network.NetworkUtils;
+import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.node.Node;
+import org.elasticsearch.node.internal.InternalNode;
 import org.elasticsearch.search.SearchHit;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.AfterMethod;
@@ -56,12 +58,27 @@ public class BaseESTest {
 
     @BeforeClass
     protected void setupServer() {
-        node = nodeBuilder().local(true).settings(settingsBuilder()
+        node = nodeBuilder().local(true).settings(nodeSettings(settingsBuilder()
                 .put("cluster.name", "test-cluster-" + NetworkUtils.getLocalAddress())
                 .put("gateway.type", "none")
                 .put("index.numberOfReplicas", 0)
                 .put("index.numberOfShards", 1)
-        ).node();
+        )).node();
+    }
+
+    /**
+     * Hook for tests needing additional node settings.
+     */
+    protected ImmutableSettings.Builder nodeSettings(ImmutableSettings.Builder builder) {
+        return builder;
+    }
+
+    protected Node node() {
+        return node;
+    }
+
+    protected <T> T instance(Class<T> clazz) {
+        return ((InternalNode) node).injector().getInstance(clazz);
     }
 
     @AfterClass
@@ -173,10 +190,9 @@ public class BaseESTest {
     protected void assertDocs(QueryBuilder queryBuilder, String... ids) throws IOException {
         XContentBuilder searchQuery = XContentFactory.contentBuilder(Requests.INDEX_CONTENT_TYPE);
         searchQuery.startObject();
-        searchQuery.startObject("query");
+        searchQuery.field("query");
         queryBuilder.toXContent(searchQuery, ToXContent.EMPTY_PARAMS);
         searchQuery.endObject();
-        searchQuery.endObject();
         if (VERBOSE)
             System.out.println(searchQuery.string());
 
@@ -0,0 +1,149 @@
+package org.elasticsearch.index.analysis;
+
+import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
+import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.indices.analysis.AnalysisCacheService;
+import org.elasticsearch.rest.action.admin.indices.analyze.BulkAnalyzeService;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class BulkAnalyzeTest extends BaseESTest {
+
+    public static final String ANALYZER = "bulk_analyzer";
+    public static final String CACHED_ANALYZER = "cached_bulk_analyzer";
+
+    @Override
+    protected ImmutableSettings.Builder nodeSettings(ImmutableSettings.Builder builder) {
+        return builder
+                .put(BulkAnalyzeService.SETTING_POOL_SIZE, 2)
+                .put(BulkAnalyzeService.SETTING_WINDOW, 2)
+                .put(BulkAnalyzeService.SETTING_MAX_LINES, 10)
+                .put(AnalysisCacheService.SETTING_SIZE, "1mb");
+    }
+
+    @Test
+    public void testLineSplitting() throws IOException {
+        Map<String, Object> response = bulkAnalyze(ANALYZER, "abc\nde\n\nfgh ij", 200);
+        assertThat(response.get("count"), equalTo((Object) 4));
+        List<List<String>> terms = terms(response);
+        assertThat(terms.size(), equalTo(4));
+        assertThat(terms.get(0).toString(), equalTo("[ab, abc]"));
+        assertThat(terms.get(1).toString(), equalTo("[de]"));
+        assertThat(terms.get(2).toString(), equalTo("[]"));
+        assertThat(terms.get(3).toString(), equalTo("[fg, fgh, ij]"));
+    }
+
+    @Test
+    public void testCarriageReturns() throws IOException {
+        Map<String, Object> response = bulkAnalyze(ANALYZER, "abc\r\nde\r\n", 200);
+        assertThat(response.get("count"), equalTo((Object) 2));
+        List<List<String>> terms = terms(response);
+        assertThat(terms.get(0).toString(), equalTo("[ab, abc]"));
+        assertThat(terms.get(1).toString(), equalTo("[de]"));
+    }
+
+    @Test
+    public void testOrdering() throws IOException {
+        // More texts than the window, so that results complete out of order
+        StringBuilder body = new StringBuilder();
+        for (int i = 0 ; i < 10 ; i++) {
+            body.append("x");
+            for (int j = 0 ; j < (i % 3) * 1000 ; j++) {
+                body.append(" yy");
+            }
+            body.append(" t").append(i).append('\n');
+        }
+        Map<String, Object> response = bulkAnalyze(ANALYZER, body.toString(), 200);
+        assertThat(response.get("count"), equalTo((Object) 10));
+        List<List<String>> terms = terms(response);
+        for (int i = 0 ; i < 10 ; i++) {
+            List<String> tokens = terms.get(i);
+            assertThat(tokens.get(tokens.size() - 1), equalTo("t" + i));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCachedAnalyzer() throws IOException {
+        Map<String, Object> first = bulkAnalyze(CACHED_ANALYZER, "abc\nde\nabc", 200);
+        Map<String, Object> second = bulkAnalyze(CACHED_ANALYZER, "abc\nde\nabc", 200);
+        assertThat(terms(first).toString(), equalTo("[[ab, abc], [de], [ab, abc]]"));
+        assertThat(terms(second), equalTo(terms(first)));
+        Map<String, Object> firstCache = (Map<String, Object>) first.get("cache");
+        Map<String, Object> secondCache = (Map<String, Object>) second.get("cache");
+        // Each text gets analyzed only once, whatever the request
+        assertThat(((Number) secondCache.get("miss_count")).longValue(), equalTo(((Number) firstCache.get("miss_count")).longValue()));
+        assertThat(((Number) secondCache.get("hit_count")).longValue() - ((Number) firstCache.get("hit_count")).longValue(), equalTo(3L));
+        assertThat(((Number) secondCache.get("saved_in_bytes")).longValue() - ((Number) firstCache.get("saved_in_bytes")).longValue(), equalTo(8L));
+    }
+
+    @Test
+    public void testUnknownAnalyzer() throws IOException {
+        bulkAnalyze("no_such_analyzer", "abc", 400);
+    }
+
+    @Test
+    public void testTooManyLines() throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0 ; i < 11 ; i++) {
+            body.append("abc\n");
+        }
+        bulkAnalyze(ANALYZER, body.toString(), 400);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<List<String>> terms(Map<String, Object> response) {
+        List<List<String>> rtn = new ArrayList<List<String>>();
+        for (Map<String, Object> result : (List<Map<String, Object>>) response.get("results")) {
+            List<String> terms = new ArrayList<String>();
+            for (Map<String, Object> token : (List<Map<String, Object>>) result.get("tokens")) {
+                terms.add((String) token.get("token"));
+            }
+            rtn.add(terms);
+        }
+        return rtn;
+    }
+
+    private Map<String, Object> bulkAnalyze(String analyzer, String body, int expectedStatus) throws IOException {
+        NodesInfoResponse nodesInfo = node().client().admin().cluster().prepareNodesInfo().setHttp(true).execute().actionGet();
+        InetSocketAddress address = ((InetSocketTransportAddress) nodesInfo.getNodes()[0].getHttp().getAddress().publishAddress()).address();
+        URL url = new URL("http", address.getHostName(), address.getPort(), "/" + INDEX + "/_bulk_analyze?analyzer=" + analyzer);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body.getBytes(Charsets.UTF_8));
+            } finally {
+                out.close();
+            }
+            assertThat("status", connection.getResponseCode(), equalTo(expectedStatus));
+            InputStream in = expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream();
+            String response = Streams.copyToString(new InputStreamReader(in, Charsets.UTF_8));
+            return XContentFactory.xContent(XContentType.JSON).createParser(response).mapAndClose();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+}
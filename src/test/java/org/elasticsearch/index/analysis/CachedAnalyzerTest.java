@@ -0,0 +1,135 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.BaseTokenStreamTestCase;
+import org.apache.lucene.analysis.MockTokenizer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.ngram.EdgeNGram2TokenFilter;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.indices.analysis.AnalysisCacheService;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Tests {@link CachedAnalyzer} and {@link AnalysisCacheService} for correctness.
+ */
+public class CachedAnalyzerTest extends BaseTokenStreamTestCase {
+
+    private static Analyzer wrapped() {
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+                Tokenizer tokenizer = new MockTokenizer(reader, MockTokenizer.WHITESPACE, false);
+                return new TokenStreamComponents(tokenizer, new EdgeNGram2TokenFilter(tokenizer, EdgeNGram2TokenFilter.Side.FRONT, 1, 3, true));
+            }
+        };
+    }
+
+    private static AnalysisCacheService cacheService(String size) {
+        return new AnalysisCacheService(ImmutableSettings.settingsBuilder().put(AnalysisCacheService.SETTING_SIZE, size).build());
+    }
+
+    private static void consume(Analyzer analyzer, String text) throws IOException {
+        TokenStream stream = analyzer.tokenStream("field", new StringReader(text));
+        stream.reset();
+        while (stream.incrementToken()) {
+        }
+        stream.end();
+        stream.close();
+    }
+
+    private static void assertAnalyzesToGrams(Analyzer analyzer) throws IOException {
+        assertAnalyzesTo(analyzer, "abcd ef",
+                new String[]{"a", "ab", "abc", "e", "ef"},
+                new int[]{    0,    0,     0,   5,    5},
+                new int[]{    1,    2,     3,   6,    7},
+                new String[]{"word", "word", "word", "word", "word"},
+                new int[]{    1,    0,     0,   1,    0});
+    }
+
+    public void testRoundTrip() throws Exception {
+        AnalysisCacheService cache = cacheService("1mb");
+        Analyzer analyzer = new CachedAnalyzer(wrapped(), cache, "test");
+        assertAnalyzesToGrams(analyzer);
+        assertEquals(1, cache.count());
+        assertTrue(cache.sizeInBytes() > 0);
+        long misses = cache.stats().missCount();
+        assertAnalyzesToGrams(analyzer);
+        assertEquals(1, cache.count());
+        assertEquals(misses, cache.stats().missCount());
+        assertTrue(cache.stats().hitCount() > 0);
+        assertTrue(cache.savedBytes() >= "abcd ef".length());
+    }
+
+    public void testRoundTripNonAscii() throws Exception {
+        AnalysisCacheService cache = cacheService("1mb");
+        Analyzer analyzer = new CachedAnalyzer(wrapped(), cache, "test");
+        for (int i = 0 ; i < 2 ; i++) {
+            // Also checks that chars are kept as is, even a gram ending with a lone surrogate
+            assertAnalyzesTo(analyzer, "h\u00E9\uD83D\uDE00 x",
+                    new String[]{"h", "h\u00E9", "h\u00E9\uD83D", "x"},
+                    new int[]{    0,           0,                 0,   5},
+                    new int[]{    1,           2,                 3,   6},
+                    null,
+                    new int[]{    1,           0,                 0,   1});
+        }
+        assertTrue(cache.stats().hitCount() > 0);
+    }
+
+    public void testIdentity() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_replicas", 0)
+                .put("index.analysis.filter.f.type", "edge_ngram_2")
+                .put("index.analysis.filter.f.max_gram", 3)
+                .build();
+        String identity = CachedAnalyzerProvider.identity("index", "cached", settings);
+        assertEquals(identity, CachedAnalyzerProvider.identity("index", "cached",
+                ImmutableSettings.settingsBuilder().put(settings).put("index.number_of_replicas", 1).build()));
+        assertFalse(identity.equals(CachedAnalyzerProvider.identity("other_index", "cached", settings)));
+        assertFalse(identity.equals(CachedAnalyzerProvider.identity("index", "other_cached", settings)));
+        assertFalse(identity.equals(CachedAnalyzerProvider.identity("index", "cached",
+                ImmutableSettings.settingsBuilder().put(settings).put("index.analysis.filter.f.max_gram", 4).build())));
+        assertFalse(identity.equals(CachedAnalyzerProvider.identity("index", "cached",
+                ImmutableSettings.settingsBuilder().put(settings).put(EdgeNGram2TokenFilterFactory.OVERRIDES_PREFIX + "f.max_gram", 4).build())));
+    }
+
+    public void testKeyChangesWithIdentity() throws Exception {
+        AnalysisCacheService cache = cacheService("1mb");
+        CachedAnalyzer analyzer = new CachedAnalyzer(wrapped(), cache, "before");
+        consume(analyzer, "abcd ef");
+        consume(analyzer, "abcd ef");
+        assertEquals(1, cache.stats().missCount());
+        assertEquals(1, cache.stats().hitCount());
+        analyzer.identity("after");
+        consume(analyzer, "abcd ef");
+        assertEquals(2, cache.stats().missCount());
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(2, cache.count());
+    }
+
+    public void testEviction() throws Exception {
+        AnalysisCacheService cache = cacheService("2kb");
+        Analyzer analyzer = new CachedAnalyzer(wrapped(), cache, "test");
+        for (int i = 0 ; i < 200 ; i++) {
+            consume(analyzer, "text" + i + " abcdefgh");
+        }
+        assertTrue(cache.stats().evictionCount() > 0);
+        assertTrue(cache.count() < 200);
+        assertTrue(cache.sizeInBytes() > 0);
+        assertTrue(cache.sizeInBytes() <= 2048);
+    }
+
+    public void testDisabled() throws Exception {
+        AnalysisCacheService cache = cacheService("0");
+        assertFalse(cache.enabled());
+        Analyzer analyzer = new CachedAnalyzer(wrapped(), cache, "test");
+        assertAnalyzesToGrams(analyzer);
+        assertAnalyzesToGrams(analyzer);
+        assertEquals(0, cache.count());
+        assertEquals(0, cache.sizeInBytes());
+    }
+}
@@ -0,0 +1,101 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.ngram.EdgeNGram2Plan;
+import org.apache.lucene.analysis.ngram.EdgeNGram2TokenFilter;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.settings.Settings;
+import org.testng.annotations.Test;
+
+import static org.elasticsearch.common.settings.ImmutableSettings.settingsBuilder;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the parsing of the filter settings by {@link EdgeNGram2TokenFilterFactory#compile(Settings)}.
+ */
+@Test
+public class EdgeNGram2TokenFilterFactoryTest {
+
+    @Test
+    public void testMaxGramRatios() {
+        EdgeNGram2Plan plan = EdgeNGram2TokenFilterFactory.compile(settingsBuilder()
+                .put("max_gram", 100)
+                .put("max_gram_ratios.7", "0.6")
+                .put("max_gram_ratios.20", "0.4")
+                .build());
+        assertThat(plan.getMaxGram(6), equalTo(6));
+        assertThat(plan.getMaxGram(10), equalTo(6));
+        assertThat(plan.getMaxGram(19), equalTo(12));
+        assertThat(plan.getMaxGram(20), equalTo(8));
+    }
+
+    @Test
+    public void testMaxGramRatiosFromYaml() {
+        Settings settings = settingsBuilder().loadFromSource(
+                "max_gram: 100\n" +
+                "max_gram_ratios:\n" +
+                "    7: 0.6\n" +
+                "    20: 0.4\n").build();
+        EdgeNGram2Plan plan = EdgeNGram2TokenFilterFactory.compile(settings);
+        assertThat(plan, equalTo(new EdgeNGram2Plan(EdgeNGram2TokenFilter.Side.FRONT, 1, 100, false, false,
+                new int[]{7, 20}, new double[]{0.6, 0.4}, false)));
+    }
+
+    @Test
+    public void testMaxGramRatioShortcut() {
+        EdgeNGram2Plan plan = EdgeNGram2TokenFilterFactory.compile(settingsBuilder()
+                .put("max_gram", 100)
+                .put("max_gram_ratio", "0.5")
+                .build());
+        // Applies from size 1 on
+        assertThat(plan, equalTo(EdgeNGram2TokenFilterFactory.compile(settingsBuilder()
+                .put("max_gram", 100)
+                .put("max_gram_ratios.1", "0.5")
+                .build())));
+        assertThat(plan.getMaxGram(1), equalTo(1));
+        assertThat(plan.getMaxGram(10), equalTo(5));
+        assertThat(plan.getMaxGram(11), equalTo(6));
+    }
+
+    @Test(expectedExceptions = ElasticSearchIllegalArgumentException.class)
+    public void testMaxGramRatioExclusiveWithRatios() {
+        EdgeNGram2TokenFilterFactory.compile(settingsBuilder()
+                .put("max_gram", 100)
+                .put("max_gram_ratio", "0.5")
+                .put("max_gram_ratios.7", "0.6")
+                .build());
+    }
+
+    @Test(expectedExceptions = ElasticSearchIllegalArgumentException.class)
+    public void testInvalidMaxGramRatiosSize() {
+        EdgeNGram2TokenFilterFactory.compile(settingsBuilder()
+                .put("max_gram_ratios.seven", "0.6")
+                .build());
+    }
+
+    @Test(expectedExceptions = ElasticSearchIllegalArgumentException.class)
+    public void testInvalidMaxGramRatio() {
+        EdgeNGram2TokenFilterFactory.compile(settingsBuilder()
+                .put("max_gram_ratio", "1.5")
+                .build());
+    }
+
+    @Test
+    public void testAlwaysFullTerm() {
+        EdgeNGram2Plan plan = EdgeNGram2TokenFilterFactory.compile(settingsBuilder()
+                .put("always_full_term", true)
+                .build());
+        assertThat(plan.isAlwaysFullTerm(), equalTo(true));
+    }
+
+    @Test(expectedExceptions = ElasticSearchIllegalArgumentException.class)
+    public void testAlwaysFullTermRejectedWithBuckets() {
+        EdgeNGram2TokenFilterFactory.compile(settingsBuilder()
+                .put("max_gram", 10)
+                .putArray("buckets", "2", "5")
+                .put("bucket", "g3_5")
+                .put("always_full_term", true)
+                .build());
+    }
+
+}
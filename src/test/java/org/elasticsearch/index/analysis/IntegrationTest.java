@@ -1,11 +1,24 @@
 package org.elasticsearch.index.analysis;
 
+import org.apache.lucene.analysis.ngram.EdgeNGram2Plan;
+import org.elasticsearch.index.query.EdgeNGram2PrefixQueryBuilder;
+import org.elasticsearch.indices.IndicesService;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+
+import static org.elasticsearch.common.settings.ImmutableSettings.settingsBuilder;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
 @Test
 public class IntegrationTest extends BaseESTest {
 
     public static final String ANALYZER = "configured_analyzer";
+    public static final String FILTER = "configured_edge_ngram_2";
+    public static final String BUCKETED_ANALYZER = "bucketed_analyzer";
+    public static final String BUCKETED_FILTER = "bucketed_edge_ngram_2";
+    public static final String RATIO_ANALYZER = "ratio_analyzer";
 
     @Test
     public void testAnalysis() {
@@ -17,4 +30,83 @@ public class IntegrationTest extends BaseESTest {
                 new int[]{     1,      0,    2,     0});
     }
 
+    @Test
+    public void testBucketedAnalysis() {
+        assertAnalyzesTo(BUCKETED_ANALYZER, "abcdefg hi",
+                new String[]{"abc", "abcd", "abcde"},
+                new int[]{      0,      0,       0},
+                new int[]{      3,      4,       5},
+                null,
+                new int[]{      1,      1,       1});
+    }
+
+    @Test
+    public void testRatioAnalysis() {
+        // Below 4 chars, no ratio applies, from there on half the term is kept, plus the full term
+        assertAnalyzesTo(RATIO_ANALYZER, "ab abcdef",
+                new String[]{"a", "ab", "a", "ab", "abc", "abcdef"},
+                new int[]{    0,    0,   3,    3,     3,        3},
+                new int[]{    1,    2,   4,    5,     6,        9},
+                null,
+                new int[]{    1,    1,   1,    1,     1,        1});
+    }
+
+    @Test
+    public void testBucketedPrefixQuery() throws IOException {
+        indexDoc(doc("1", "title", "abcdefghijkl"));
+        indexDoc(doc("2", "title", "abd"));
+        commit();
+        assertDocs(new EdgeNGram2PrefixQueryBuilder("title", BUCKETED_FILTER, "ab"), "1", "2");
+        assertDocs(new EdgeNGram2PrefixQueryBuilder("title", BUCKETED_FILTER, "abd"), "2");
+        assertDocs(new EdgeNGram2PrefixQueryBuilder("title", BUCKETED_FILTER, "abcdefg"), "1");
+        assertDocs(new EdgeNGram2PrefixQueryBuilder("title", BUCKETED_FILTER, "abcdefghij"), "1");
+        // Longer than max_gram, looked up as its first 10 chars
+        assertDocs(new EdgeNGram2PrefixQueryBuilder("title", BUCKETED_FILTER, "abcdefghijkl"), "1");
+        assertDocs(new EdgeNGram2PrefixQueryBuilder("title", BUCKETED_FILTER, "abcdefghijklmn"), "1");
+        assertDocs(new EdgeNGram2PrefixQueryBuilder("title", BUCKETED_FILTER, "abcdefghix"));
+    }
+
+    @Test
+    public void testLiveSettingsUpdate() throws InterruptedException {
+        updateFilterSetting("max_gram", "4");
+        for (int i = 0 ; i < 100 && configuredFilter().plan().getMaxGram() != 4 ; i++) {
+            Thread.sleep(100);
+        }
+        assertThat(configuredFilter().plan().getMaxGram(), equalTo(4));
+        assertAnalyzesTo(ANALYZER, "abcde f ghi",
+                new String[]{"de", "cde", "bcde", "hi", "ghi"},
+                new int[]{     3,      2,      1,    9,     8},
+                new int[]{     5,      5,      5,   11,    11},
+                null,
+                new int[]{     1,      0,      0,    2,     0});
+    }
+
+    @Test
+    public void testInvalidLiveSettingsUpdate() throws InterruptedException {
+        EdgeNGram2Plan before = configuredFilter().plan();
+        // min_gram greater than max_gram
+        updateFilterSetting("min_gram", "5");
+        String key = EdgeNGram2TokenFilterFactory.OVERRIDES_PREFIX + FILTER + ".min_gram";
+        for (int i = 0 ; i < 100 && !"5".equals(indexSettings(key)) ; i++) {
+            Thread.sleep(100);
+        }
+        assertThat(indexSettings(key), equalTo("5"));
+        assertThat(configuredFilter().plan(), equalTo(before));
+        testAnalysis();
+    }
+
+    private void updateFilterSetting(String key, String value) {
+        node().client().admin().indices().prepareUpdateSettings(INDEX)
+                .setSettings(settingsBuilder().put(EdgeNGram2TokenFilterFactory.OVERRIDES_PREFIX + FILTER + "." + key, value))
+                .execute().actionGet();
+    }
+
+    private String indexSettings(String key) {
+        return instance(IndicesService.class).indexServiceSafe(INDEX).settingsService().getSettings().get(key);
+    }
+
+    private EdgeNGram2TokenFilterFactory configuredFilter() {
+        return (EdgeNGram2TokenFilterFactory) instance(IndicesService.class).indexServiceSafe(INDEX).analysisService().tokenFilter(FILTER);
+    }
+
 }